@@ -0,0 +1,96 @@
+package share.shiguri.code.load;
+
+/**
+ * @ClassName LatencyHistogram
+ * @Description 按对数分桶的延迟直方图，与HdrHistogram的分桶方式相同：小于2^SUB_BUCKET_BITS的值每个值一个桶，
+ * 更大的值按最高位所在的区间分组，每组再均分为2^(SUB_BUCKET_BITS-1)个桶，相对误差不超过1/64。<br>
+ * 非线程安全，每个线程各用一个，结束后用merge()合并。
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+
+    private final long[] counts = new long[(Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKET_HALF + SUB_BUCKET_HALF];
+    private long totalCount;
+    private long totalNanos;
+    private long maxNanos;
+
+    public static LatencyHistogram create() {
+        return new LatencyHistogram();
+    }
+
+    /**
+     * 记录一次操作的耗时
+     * @param nanos 耗时，单位纳秒，负数按0记录
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts[bucketOf(value)] += 1;
+        totalCount += 1;
+        totalNanos += value;
+        maxNanos = Math.max(maxNanos, value);
+    }
+
+    public void merge(LatencyHistogram other) {
+        for (int index = 0; index < counts.length; index++) {
+            counts[index] += other.counts[index];
+        }
+        totalCount += other.totalCount;
+        totalNanos += other.totalNanos;
+        maxNanos = Math.max(maxNanos, other.maxNanos);
+    }
+
+    public long getCount() {
+        return totalCount;
+    }
+
+    public long getMax() {
+        return maxNanos;
+    }
+
+    public double getMean() {
+        return totalCount == 0 ? 0 : (double) totalNanos / totalCount;
+    }
+
+    /**
+     * 返回百分位上的耗时，取所在桶的上界（不超过最大值）
+     * @param percentile 百分位，取值在[0, 100]之间，例如99.9
+     * @return long 耗时，单位纳秒
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must in [0, 100]");
+        }
+        if (totalCount == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+        long seen = 0;
+        for (int index = 0; index < counts.length; index++) {
+            seen += counts[index];
+            if (seen >= rank) {
+                return Math.min(highestValueOf(index), maxNanos);
+            }
+        }
+        return maxNanos;
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int level = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return level * SUB_BUCKET_HALF + (int) (value >>> level);
+    }
+
+    private static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKET_COUNT) {
+            return bucket;
+        }
+        int level = bucket / SUB_BUCKET_HALF - 1;
+        long subBucket = bucket - (long) level * SUB_BUCKET_HALF;
+        return ((subBucket + 1) << level) - 1;
+    }
+}
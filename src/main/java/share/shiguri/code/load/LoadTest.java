@@ -0,0 +1,310 @@
+package share.shiguri.code.load;
+
+import share.shiguri.code.rtree.Constants;
+import share.shiguri.code.rtree.MaximumBoundingBox;
+import share.shiguri.code.rtree.Point;
+import share.shiguri.code.rtree.RTree;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * @ClassName LoadTest
+ * @Description RTree的负载测试。按Workload生成或从trace文件读取混合的insert/delete/update/search/nearest操作，
+ * 多线程执行，输出吞吐量以及每种操作的延迟分布（p50/p99/p999）。<br>
+ * RTree本身不支持并发修改，写操作持有写锁，查询持有读锁，测得的延迟包含等锁的时间。<br>
+ * 参数均为 --name=value 的形式，例如：<br>
+ * --distribution=road --threads=4 --preload=100000 --operations=1000000 --mix=insert:20,delete:5,update:25,search:45,nearest:5<br>
+ * --trace=file 从trace文件读取负载（线程数由文件决定），--record=file 把生成的负载写入trace文件<br>
+ * --leafCapacity 为叶子节点设置与--capacity不同的容量，不给出时与--capacity相同
+ */
+public class LoadTest {
+    static final Map<String, String> DEFAULTS = new HashMap<>();
+
+    static {
+        DEFAULTS.put("distribution", Workload.UNIFORM);
+        DEFAULTS.put("seed", "42");
+        DEFAULTS.put("threads", "1");
+        DEFAULTS.put("preload", "100000");
+        DEFAULTS.put("operations", "1000000");
+        DEFAULTS.put("mix", "insert:20,delete:5,update:20,search:50,nearest:5");
+        DEFAULTS.put("dimension", "2");
+        DEFAULTS.put("extent", "10000");
+        DEFAULTS.put("maxSide", "10");
+        DEFAULTS.put("querySide", "100");
+        DEFAULTS.put("k", "10");
+        DEFAULTS.put("type", String.valueOf(Constants.RTREE_QUADRATIC));
+        DEFAULTS.put("capacity", "32");
+        DEFAULTS.put("fill", "0.4");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args, DEFAULTS);
+        int dimension = Integer.parseInt(options.get("dimension"));
+        List<Operation> preloaded = new ArrayList<>();
+        List<List<Operation>> perThread = new ArrayList<>();
+        loadOperations(options, dimension, preloaded, perThread);
+
+        RTree rTree = createTree(options, dimension);
+        LoadTest loadTest = new LoadTest(rTree, Integer.parseInt(options.get("k")));
+        Map<Integer, LatencyHistogram> histograms = loadTest.run(preloaded, perThread);
+        loadTest.report(options, perThread, histograms);
+    }
+
+    /**
+     * 把 --name=value 形式的参数覆盖到defaults的副本上
+     */
+    static Map<String, String> parseOptions(String[] args, Map<String, String> defaults) {
+        Map<String, String> options = new HashMap<>(defaults);
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (!arg.startsWith("--") || split == -1) {
+                throw new IllegalArgumentException("arguments must be --name=value: " + arg);
+            }
+            options.put(arg.substring(2, split), arg.substring(split + 1));
+        }
+        return options;
+    }
+
+    /**
+     * 从trace文件读取负载，或按Workload生成负载；给出--record时把负载写入trace文件
+     */
+    static void loadOperations(Map<String, String> options, int dimension, List<Operation> preloaded,
+                               List<List<Operation>> perThread) throws IOException {
+        if (options.containsKey("trace")) {
+            readTrace(options.get("trace"), dimension, preloaded, perThread);
+        } else {
+            Workload workload = new Workload(options.get("distribution"), Long.parseLong(options.get("seed")), dimension,
+                    Double.parseDouble(options.get("extent")), Double.parseDouble(options.get("maxSide")),
+                    Double.parseDouble(options.get("querySide")), parseMix(options.get("mix")));
+            int threads = Integer.parseInt(options.get("threads"));
+            int preload = Integer.parseInt(options.get("preload"));
+            int operations = Integer.parseInt(options.get("operations"));
+            for (int thread = 0; thread < threads; thread++) {
+                // 余数分给前面的线程
+                int share = operations / threads + (thread < operations % threads ? 1 : 0);
+                int preloadShare = preload / threads + (thread < preload % threads ? 1 : 0);
+                perThread.add(workload.generate(thread, preloadShare, share, preloaded));
+            }
+        }
+        if (options.containsKey("record")) {
+            writeTrace(options.get("record"), preloaded, perThread);
+        }
+    }
+
+    private final RTree rTree;
+    private final int k;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private long elapsedNanos;
+
+    public LoadTest(RTree rTree, int k) {
+        this.rTree = rTree;
+        this.k = k;
+    }
+
+    /**
+     * 单线程执行预加载，再为每个操作序列启动一个线程执行并计时
+     * @param preloaded 预加载的操作
+     * @param perThread 每个线程的操作序列
+     * @return Map<Integer, LatencyHistogram> 各操作类型的延迟直方图
+     */
+    public Map<Integer, LatencyHistogram> run(List<Operation> preloaded, List<List<Operation>> perThread)
+            throws InterruptedException {
+        for (Operation operation : preloaded) {
+            execute(operation);
+        }
+
+        List<Map<Integer, LatencyHistogram>> results = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (List<Operation> operations : perThread) {
+            Map<Integer, LatencyHistogram> histograms = newHistograms();
+            results.add(histograms);
+            threads.add(new Thread(() -> {
+                for (Operation operation : operations) {
+                    long start = System.nanoTime();
+                    execute(operation);
+                    histograms.get(operation.getType()).record(System.nanoTime() - start);
+                }
+            }, "rtree-load-" + threads.size()));
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        this.elapsedNanos = System.nanoTime() - start;
+
+        Map<Integer, LatencyHistogram> merged = newHistograms();
+        for (Map<Integer, LatencyHistogram> histograms : results) {
+            for (Map.Entry<Integer, LatencyHistogram> entry : histograms.entrySet()) {
+                merged.get(entry.getKey()).merge(entry.getValue());
+            }
+        }
+        return merged;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    private void execute(Operation operation) {
+        switch (operation.getType()) {
+            case Operation.INSERT:
+                lock.writeLock().lock();
+                try {
+                    rTree.insert(operation.getBox());
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                break;
+            case Operation.DELETE:
+                lock.writeLock().lock();
+                try {
+                    rTree.delete(operation.getBox());
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                break;
+            case Operation.UPDATE:
+                lock.writeLock().lock();
+                try {
+                    rTree.update(operation.getBox(), operation.getTarget());
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                break;
+            case Operation.SEARCH:
+                lock.readLock().lock();
+                try {
+                    rTree.search(operation.getBox());
+                } finally {
+                    lock.readLock().unlock();
+                }
+                break;
+            default:
+                lock.readLock().lock();
+                try {
+                    rTree.nearest(operation.getBox().getLeftBottomPoint(), k);
+                } finally {
+                    lock.readLock().unlock();
+                }
+                break;
+        }
+    }
+
+    private static Map<Integer, LatencyHistogram> newHistograms() {
+        Map<Integer, LatencyHistogram> histograms = new HashMap<>();
+        for (int type = 0; type < Operation.NAMES.length; type++) {
+            histograms.put(type, LatencyHistogram.create());
+        }
+        return histograms;
+    }
+
+    private static RTree createTree(Map<String, String> options, int dimension) {
+        int capacity = Integer.parseInt(options.get("capacity"));
+        int leafCapacity = options.containsKey("leafCapacity") ? Integer.parseInt(options.get("leafCapacity")) : capacity;
+        return createTree(Integer.parseInt(options.get("type")), capacity, leafCapacity,
+                Double.parseDouble(options.get("fill")), dimension, Double.parseDouble(options.get("extent")));
+    }
+
+    /**
+     * 按给定配置创建空的RTree，Hilbert R树的空间为每一维[0, extent]
+     */
+    static RTree createTree(int type, int capacity, int leafCapacity, double fill, int dimension, double extent) {
+        if (type == Constants.HILBERT) {
+            double[] low = new double[dimension];
+            double[] high = new double[dimension];
+            Arrays.fill(high, extent);
+            return new RTree(capacity, leafCapacity, fill, MaximumBoundingBox.create(Point.create(low), Point.create(high)));
+        }
+        return new RTree(capacity, leafCapacity, type, fill, dimension);
+    }
+
+    /**
+     * 解析形如 insert:20,delete:5,search:75 的操作比例，未给出的操作比例为0
+     */
+    private static double[] parseMix(String text) {
+        double[] mix = new double[Operation.NAMES.length];
+        for (String part : text.split(",")) {
+            String[] pair = part.split(":");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("invalid mix: " + text);
+            }
+            mix[Operation.typeOf(pair[0].trim())] = Double.parseDouble(pair[1]);
+        }
+        return mix;
+    }
+
+    private static void readTrace(String file, int dimension, List<Operation> preloaded,
+                                  List<List<Operation>> perThread) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                Operation operation = Operation.parse(line, dimension);
+                if (operation.getThread() == Operation.PRELOAD) {
+                    preloaded.add(operation);
+                    continue;
+                }
+                while (perThread.size() <= operation.getThread()) {
+                    perThread.add(new ArrayList<>());
+                }
+                perThread.get(operation.getThread()).add(operation);
+            }
+        }
+    }
+
+    private static void writeTrace(String file, List<Operation> preloaded, List<List<Operation>> perThread)
+            throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8)) {
+            for (Operation operation : preloaded) {
+                writer.write(operation.format());
+                writer.newLine();
+            }
+            for (List<Operation> operations : perThread) {
+                for (Operation operation : operations) {
+                    writer.write(operation.format());
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+    private void report(Map<String, String> options, List<List<Operation>> perThread,
+                        Map<Integer, LatencyHistogram> histograms) {
+        long total = 0;
+        for (List<Operation> operations : perThread) {
+            total += operations.size();
+        }
+        System.out.println(String.format("source=%s threads=%d operations=%d elapsed=%.1fms throughput=%.0f ops/s",
+                options.containsKey("trace") ? options.get("trace") : options.get("distribution"),
+                perThread.size(), total, elapsedNanos / 1e6, total / (elapsedNanos / 1e9)));
+        System.out.println(String.format("%-8s %10s %10s %10s %10s %10s %10s",
+                "op", "count", "mean(us)", "p50(us)", "p99(us)", "p999(us)", "max(us)"));
+        for (int type = 0; type < Operation.NAMES.length; type++) {
+            LatencyHistogram histogram = histograms.get(type);
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            System.out.println(String.format("%-8s %10d %10.1f %10.1f %10.1f %10.1f %10.1f",
+                    Operation.NAMES[type], histogram.getCount(), histogram.getMean() / 1e3,
+                    histogram.getValueAtPercentile(50) / 1e3, histogram.getValueAtPercentile(99) / 1e3,
+                    histogram.getValueAtPercentile(99.9) / 1e3, histogram.getMax() / 1e3));
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package share.shiguri.code.load;
+
+import share.shiguri.code.rtree.MaximumBoundingBox;
+import share.shiguri.code.rtree.Point;
+
+import java.util.Arrays;
+import java.util.StringJoiner;
+
+/**
+ * @ClassName Operation
+ * @Description 负载中的一个操作。trace文件中每行一个操作：线程号 操作名 坐标...，
+ * 每个MBB依次写出左下角与右上角的坐标，例如 "0 update x1 y1 x2 y2 x1' y1' x2' y2'"。
+ * 线程号为PRELOAD的操作是预加载，在计时之前单线程执行。
+ */
+public class Operation {
+    public static final int INSERT = 0;
+    public static final int DELETE = 1;
+    public static final int UPDATE = 2;
+    public static final int SEARCH = 3;
+    public static final int NEAREST = 4;
+    public static final String[] NAMES = {"insert", "delete", "update", "search", "nearest"};
+    public static final int PRELOAD = -1;
+
+    private final int thread;
+    private final int type;
+    // insert/delete的条目，update的旧条目，search的窗口，nearest的查询点（退化的MBB）
+    private final MaximumBoundingBox box;
+    // update的新条目
+    private final MaximumBoundingBox target;
+
+    public Operation(int thread, int type, MaximumBoundingBox box, MaximumBoundingBox target) {
+        if (type < INSERT || type > NEAREST || box == null || (type == UPDATE && target == null)) {
+            throw new IllegalArgumentException("invalid operation");
+        }
+        this.thread = thread;
+        this.type = type;
+        this.box = box;
+        this.target = target;
+    }
+
+    public int getThread() {
+        return thread;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public MaximumBoundingBox getBox() {
+        return box;
+    }
+
+    public MaximumBoundingBox getTarget() {
+        return target;
+    }
+
+    public static int typeOf(String name) {
+        int type = Arrays.asList(NAMES).indexOf(name);
+        if (type == -1) {
+            throw new IllegalArgumentException("unknown operation: " + name);
+        }
+        return type;
+    }
+
+    /**
+     * 解析trace文件中的一行
+     * @param line 一行文本
+     * @param dimension 维度
+     * @return Operation
+     */
+    public static Operation parse(String line, int dimension) {
+        String[] fields = line.trim().split("\\s+");
+        int type = typeOf(fields.length > 1 ? fields[1] : "");
+        int boxes = type == UPDATE ? 2 : 1;
+        if (fields.length != 2 + boxes * 2 * dimension) {
+            throw new IllegalArgumentException("invalid trace line: " + line);
+        }
+
+        double[] coordinates = new double[fields.length - 2];
+        for (int index = 0; index < coordinates.length; index++) {
+            coordinates[index] = Double.parseDouble(fields[index + 2]);
+        }
+        MaximumBoundingBox box = boxAt(coordinates, 0, dimension);
+        MaximumBoundingBox target = type == UPDATE ? boxAt(coordinates, 2 * dimension, dimension) : null;
+        return new Operation(Integer.parseInt(fields[0]), type, box, target);
+    }
+
+    private static MaximumBoundingBox boxAt(double[] coordinates, int from, int dimension) {
+        Point leftBottom = Point.create(Arrays.copyOfRange(coordinates, from, from + dimension));
+        Point rightTop = Point.create(Arrays.copyOfRange(coordinates, from + dimension, from + 2 * dimension));
+        return MaximumBoundingBox.create(leftBottom, rightTop);
+    }
+
+    /**
+     * @return String trace文件中的一行
+     */
+    public String format() {
+        StringJoiner joiner = new StringJoiner(" ");
+        joiner.add(String.valueOf(thread)).add(NAMES[type]);
+        append(joiner, box);
+        if (target != null) {
+            append(joiner, target);
+        }
+        return joiner.toString();
+    }
+
+    private static void append(StringJoiner joiner, MaximumBoundingBox box) {
+        Point leftBottom = box.getLeftBottomPoint();
+        Point rightTop = box.getRightTopPoint();
+        for (int index = 0; index < box.dimension(); index++) {
+            joiner.add(String.valueOf(leftBottom.getValueOfIndex(index)));
+        }
+        for (int index = 0; index < box.dimension(); index++) {
+            joiner.add(String.valueOf(rightTop.getValueOfIndex(index)));
+        }
+    }
+}
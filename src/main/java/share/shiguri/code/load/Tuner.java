@@ -0,0 +1,222 @@
+package share.shiguri.code.load;
+
+import share.shiguri.code.rtree.Constants;
+import share.shiguri.code.rtree.RTree;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * @ClassName Tuner
+ * @Description 按负载为RTree选择节点容量、叶子节点容量、填充因子与分裂策略。<br>
+ * 对候选配置的每一种组合，在同一份数据样本与记录下来的操作序列（或按Workload生成的负载）上建树、执行并计时，
+ * 重复rounds次取最短的耗时，按耗时从小到大排序后推荐第一个。推荐的配置可以用Candidate.createTree创建空树，
+ * 或用RTree.rebuild(template)应用到已有的数据上。<br>
+ * 负载参数与LoadTest相同，另外的参数：<br>
+ * --types=1,4,5 --capacities=16,32,64 --leafCapacities=32,64,128 --fills=0.3,0.4 --rounds=3 --sample=1.0<br>
+ * --leafCapacities不给出时叶子节点容量与节点容量相同；--sample小于1时按比例抽取预加载的条目与每个线程操作序列的前缀，
+ * 删除、更新未被抽中的条目会变成未命中。
+ */
+public class Tuner {
+    private static final Map<String, String> DEFAULTS = new HashMap<>();
+
+    static {
+        DEFAULTS.put("types", Constants.RTREE_QUADRATIC + "," + Constants.XTREE + "," + Constants.HILBERT);
+        DEFAULTS.put("capacities", "16,32,64");
+        DEFAULTS.put("fills", "0.3,0.4");
+        DEFAULTS.put("rounds", "3");
+        DEFAULTS.put("sample", "1.0");
+        DEFAULTS.put("operations", "200000");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> defaults = new HashMap<>(LoadTest.DEFAULTS);
+        defaults.putAll(DEFAULTS);
+        Map<String, String> options = LoadTest.parseOptions(args, defaults);
+
+        int dimension = Integer.parseInt(options.get("dimension"));
+        List<Operation> preloaded = new ArrayList<>();
+        List<List<Operation>> perThread = new ArrayList<>();
+        LoadTest.loadOperations(options, dimension, preloaded, perThread);
+        double sample = Double.parseDouble(options.get("sample"));
+        if (sample < 1) {
+            sample(preloaded, perThread, sample, Long.parseLong(options.get("seed")));
+        }
+
+        List<Candidate> candidates = new ArrayList<>();
+        int[] capacities = parseInts(options.get("capacities"));
+        int[] leafCapacities = options.containsKey("leafCapacities") ? parseInts(options.get("leafCapacities")) : null;
+        for (int type : parseInts(options.get("types"))) {
+            for (int capacity : capacities) {
+                for (int leafCapacity : leafCapacities == null ? new int[]{capacity} : leafCapacities) {
+                    for (String fill : options.get("fills").split(",")) {
+                        candidates.add(new Candidate(type, capacity, leafCapacity, Double.parseDouble(fill)));
+                    }
+                }
+            }
+        }
+
+        Tuner tuner = new Tuner(dimension, Double.parseDouble(options.get("extent")),
+                Integer.parseInt(options.get("k")), Integer.parseInt(options.get("rounds")));
+        List<Result> results = tuner.tune(candidates, preloaded, perThread);
+        System.out.println(String.format("%-52s %12s %12s %12s", "candidate", "elapsed(ms)", "search99(us)", "insert99(us)"));
+        for (Result result : results) {
+            System.out.println(String.format("%-52s %12.1f %12.1f %12.1f", result.getCandidate(),
+                    result.getElapsedNanos() / 1e6,
+                    result.getHistograms().get(Operation.SEARCH).getValueAtPercentile(99) / 1e3,
+                    result.getHistograms().get(Operation.INSERT).getValueAtPercentile(99) / 1e3));
+        }
+        System.out.println("best: " + results.get(0).getCandidate());
+    }
+
+    private final int dimension;
+    // Hilbert R树的空间为每一维[0, extent]
+    private final double extent;
+    private final int k;
+    private final int rounds;
+
+    public Tuner(int dimension, double extent, int k, int rounds) {
+        if (rounds < 1) {
+            throw new IllegalArgumentException("rounds must more than 0");
+        }
+        this.dimension = dimension;
+        this.extent = extent;
+        this.k = k;
+        this.rounds = rounds;
+    }
+
+    /**
+     * 在同一份负载上依次测量每个候选配置
+     * @param candidates 候选配置
+     * @param preloaded 预加载的操作，不计入耗时
+     * @param perThread 每个线程的操作序列
+     * @return List<Result> 按耗时从小到大排序的结果，第一个为推荐的配置
+     */
+    public List<Result> tune(List<Candidate> candidates, List<Operation> preloaded, List<List<Operation>> perThread)
+            throws InterruptedException {
+        if (candidates == null || candidates.isEmpty()) {
+            throw new IllegalArgumentException("candidates can't be empty");
+        }
+        List<Result> results = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            Result best = null;
+            for (int round = 0; round < rounds; round++) {
+                LoadTest loadTest = new LoadTest(candidate.createTree(dimension, extent), k);
+                Map<Integer, LatencyHistogram> histograms = loadTest.run(preloaded, perThread);
+                if (best == null || loadTest.getElapsedNanos() < best.elapsedNanos) {
+                    best = new Result(candidate, loadTest.getElapsedNanos(), histograms);
+                }
+            }
+            results.add(best);
+        }
+        results.sort(Comparator.comparingLong(Result::getElapsedNanos));
+        return results;
+    }
+
+    /**
+     * 按比例抽取预加载的条目，每个线程只保留操作序列的前缀
+     */
+    static void sample(List<Operation> preloaded, List<List<Operation>> perThread, double ratio, long seed) {
+        Random random = new Random(seed);
+        preloaded.removeIf(operation -> random.nextDouble() >= ratio);
+        for (int thread = 0; thread < perThread.size(); thread++) {
+            List<Operation> operations = perThread.get(thread);
+            perThread.set(thread, new ArrayList<>(operations.subList(0, (int) Math.ceil(operations.size() * ratio))));
+        }
+    }
+
+    private static int[] parseInts(String text) {
+        String[] parts = text.split(",");
+        int[] values = new int[parts.length];
+        for (int index = 0; index < parts.length; index++) {
+            values[index] = Integer.parseInt(parts[index].trim());
+        }
+        return values;
+    }
+
+    /**
+     * 一组候选配置
+     */
+    public static class Candidate {
+        private final int type;
+        private final int capacity;
+        private final int leafCapacity;
+        private final double fill;
+
+        public Candidate(int type, int capacity, int leafCapacity, double fill) {
+            if (type != Constants.RTREE_QUADRATIC && type != Constants.XTREE && type != Constants.HILBERT) {
+                throw new IllegalArgumentException("split strategy not implemented: " + type);
+            }
+            // 分裂后两个节点都要达到最小条目数
+            if (capacity < 2 || leafCapacity < 2 || fill <= 0 || fill > 0.5) {
+                throw new IllegalArgumentException("capacity must more than 1 and fill must in (0, 0.5]");
+            }
+            this.type = type;
+            this.capacity = capacity;
+            this.leafCapacity = leafCapacity;
+            this.fill = fill;
+        }
+
+        /**
+         * 按该配置创建空的RTree，Hilbert R树的空间为每一维[0, extent]
+         */
+        public RTree createTree(int dimension, double extent) {
+            return LoadTest.createTree(type, capacity, leafCapacity, fill, dimension, extent);
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public int getLeafCapacity() {
+            return leafCapacity;
+        }
+
+        public double getFill() {
+            return fill;
+        }
+
+        /**
+         * @return String 可以直接传给LoadTest的参数
+         */
+        @Override
+        public String toString() {
+            return "--type=" + type + " --capacity=" + capacity + " --leafCapacity=" + leafCapacity + " --fill=" + fill;
+        }
+    }
+
+    /**
+     * 一个候选配置的测量结果，取rounds次中耗时最短的一次
+     */
+    public static class Result {
+        private final Candidate candidate;
+        private final long elapsedNanos;
+        private final Map<Integer, LatencyHistogram> histograms;
+
+        Result(Candidate candidate, long elapsedNanos, Map<Integer, LatencyHistogram> histograms) {
+            this.candidate = candidate;
+            this.elapsedNanos = elapsedNanos;
+            this.histograms = histograms;
+        }
+
+        public Candidate getCandidate() {
+            return candidate;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public Map<Integer, LatencyHistogram> getHistograms() {
+            return histograms;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package share.shiguri.code.load;
+
+import share.shiguri.code.rtree.MaximumBoundingBox;
+import share.shiguri.code.rtree.Point;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @ClassName Workload
+ * @Description 可复现的合成负载。每个线程使用以seed与线程号确定的随机数生成自己的操作序列，
+ * 并只删除、更新自己插入过的条目，因此相同参数总是生成相同的负载。<br>
+ * 条目位置的分布：<br>
+ *     uniform：在整个空间内均匀分布<br>
+ *     gaussian：围绕若干个簇中心的高斯分布<br>
+ *     road：沿若干条折线（类似路网）分布，条目是路段上的小矩形<br>
+ */
+public class Workload {
+    public static final String UNIFORM = "uniform";
+    public static final String GAUSSIAN = "gaussian";
+    public static final String ROAD = "road";
+
+    private static final int CLUSTERS = 16;
+    private static final int ROADS = 64;
+    private static final int ROAD_SEGMENTS = 32;
+
+    private final String distribution;
+    private final long seed;
+    private final int dimension;
+    // 空间每一维的范围为[0, extent]
+    private final double extent;
+    // 条目每一维边长的上限
+    private final double maxSide;
+    // 查询窗口每一维的边长
+    private final double querySide;
+    // 各操作的比例，下标为Operation中的操作类型
+    private final double[] mix;
+
+    // 所有线程共用的簇中心与路网，只由seed决定
+    private final double[][] clusters;
+    private final double[][][] roads;
+
+    public Workload(String distribution, long seed, int dimension, double extent, double maxSide,
+                    double querySide, double[] mix) {
+        if (!UNIFORM.equals(distribution) && !GAUSSIAN.equals(distribution) && !ROAD.equals(distribution)) {
+            throw new IllegalArgumentException("unknown distribution: " + distribution);
+        }
+        if (dimension < 2 || extent <= 0 || maxSide < 0 || querySide < 0) {
+            throw new IllegalArgumentException("invalid workload parameters");
+        }
+        if (mix == null || mix.length != Operation.NAMES.length) {
+            throw new IllegalArgumentException("mix must have a ratio for every operation");
+        }
+        this.distribution = distribution;
+        this.seed = seed;
+        this.dimension = dimension;
+        this.extent = extent;
+        this.maxSide = maxSide;
+        this.querySide = querySide;
+        this.mix = mix.clone();
+
+        Random random = new Random(seed);
+        this.clusters = new double[CLUSTERS][];
+        for (int cluster = 0; cluster < CLUSTERS; cluster++) {
+            clusters[cluster] = uniformPoint(random);
+        }
+        this.roads = new double[ROADS][][];
+        for (int road = 0; road < ROADS; road++) {
+            roads[road] = new double[ROAD_SEGMENTS + 1][];
+            roads[road][0] = uniformPoint(random);
+            double[] direction = new double[dimension];
+            for (int segment = 1; segment <= ROAD_SEGMENTS; segment++) {
+                // 每段在上一段的方向上小幅转向，形成较平滑的折线
+                double[] point = new double[dimension];
+                for (int index = 0; index < dimension; index++) {
+                    direction[index] = direction[index] * 0.7 + random.nextGaussian() * 0.3;
+                    point[index] = clamp(roads[road][segment - 1][index] + direction[index] * extent / ROAD_SEGMENTS);
+                }
+                roads[road][segment] = point;
+            }
+        }
+    }
+
+    /**
+     * 生成一个线程的操作序列
+     * @param thread 线程号
+     * @param preload 先插入的条目数，不计入计时
+     * @param count 计时的操作数
+     * @param preloaded 返回预加载的插入操作
+     * @return List<Operation> 计时的操作
+     */
+    public List<Operation> generate(int thread, int preload, int count, List<Operation> preloaded) {
+        Random random = new Random(seed * 31 + thread + 1);
+        List<MaximumBoundingBox> live = new ArrayList<>();
+        for (int seq = 0; seq < preload; seq++) {
+            MaximumBoundingBox box = entry(random);
+            live.add(box);
+            preloaded.add(new Operation(Operation.PRELOAD, Operation.INSERT, box, null));
+        }
+
+        double total = 0;
+        for (double ratio : mix) {
+            total += ratio;
+        }
+        List<Operation> operations = new ArrayList<>(count);
+        for (int seq = 0; seq < count; seq++) {
+            int type = pickType(random.nextDouble() * total);
+            if ((type == Operation.DELETE || type == Operation.UPDATE) && live.isEmpty()) {
+                type = Operation.INSERT;
+            }
+            switch (type) {
+                case Operation.INSERT: {
+                    MaximumBoundingBox box = entry(random);
+                    live.add(box);
+                    operations.add(new Operation(thread, type, box, null));
+                    break;
+                }
+                case Operation.DELETE: {
+                    MaximumBoundingBox box = removeRandom(live, random);
+                    operations.add(new Operation(thread, type, box, null));
+                    break;
+                }
+                case Operation.UPDATE: {
+                    MaximumBoundingBox box = removeRandom(live, random);
+                    MaximumBoundingBox moved = move(box, random);
+                    live.add(moved);
+                    operations.add(new Operation(thread, type, box, moved));
+                    break;
+                }
+                case Operation.SEARCH:
+                    operations.add(new Operation(thread, type, box(position(random), querySide), null));
+                    break;
+                default:
+                    operations.add(new Operation(thread, type, box(position(random), 0), null));
+                    break;
+            }
+        }
+        return operations;
+    }
+
+    private int pickType(double draw) {
+        for (int type = 0; type < mix.length; type++) {
+            draw -= mix[type];
+            if (draw < 0) {
+                return type;
+            }
+        }
+        return Operation.SEARCH;
+    }
+
+    private MaximumBoundingBox entry(Random random) {
+        return box(position(random), random.nextDouble() * maxSide);
+    }
+
+    /**
+     * 按分布生成一个位置
+     */
+    private double[] position(Random random) {
+        double[] point;
+        if (GAUSSIAN.equals(distribution)) {
+            double[] center = clusters[random.nextInt(CLUSTERS)];
+            point = new double[dimension];
+            for (int index = 0; index < dimension; index++) {
+                point[index] = clamp(center[index] + random.nextGaussian() * extent / 50);
+            }
+        } else if (ROAD.equals(distribution)) {
+            double[][] road = roads[random.nextInt(ROADS)];
+            int segment = random.nextInt(ROAD_SEGMENTS);
+            double ratio = random.nextDouble();
+            point = new double[dimension];
+            for (int index = 0; index < dimension; index++) {
+                double along = road[segment][index] + (road[segment + 1][index] - road[segment][index]) * ratio;
+                point[index] = clamp(along + random.nextGaussian() * extent / 5000);
+            }
+        } else {
+            point = uniformPoint(random);
+        }
+        return point;
+    }
+
+    /**
+     * 更新：把条目沿随机方向移动一小段，模拟移动对象
+     */
+    private MaximumBoundingBox move(MaximumBoundingBox box, Random random) {
+        Point leftBottom = box.getLeftBottomPoint();
+        Point rightTop = box.getRightTopPoint();
+        double[] low = new double[dimension];
+        double[] high = new double[dimension];
+        for (int index = 0; index < dimension; index++) {
+            double shift = random.nextGaussian() * extent / 1000;
+            low[index] = leftBottom.getValueOfIndex(index) + shift;
+            high[index] = rightTop.getValueOfIndex(index) + shift;
+        }
+        return MaximumBoundingBox.create(Point.create(low), Point.create(high));
+    }
+
+    private MaximumBoundingBox box(double[] center, double side) {
+        double[] low = new double[dimension];
+        double[] high = new double[dimension];
+        for (int index = 0; index < dimension; index++) {
+            low[index] = center[index] - side / 2;
+            high[index] = center[index] + side / 2;
+        }
+        return MaximumBoundingBox.create(Point.create(low), Point.create(high));
+    }
+
+    private double[] uniformPoint(Random random) {
+        double[] point = new double[dimension];
+        for (int index = 0; index < dimension; index++) {
+            point[index] = random.nextDouble() * extent;
+        }
+        return point;
+    }
+
+    private double clamp(double value) {
+        return Math.max(0, Math.min(extent, value));
+    }
+
+    private static MaximumBoundingBox removeRandom(List<MaximumBoundingBox> live, Random random) {
+        int index = random.nextInt(live.size());
+        MaximumBoundingBox box = live.get(index);
+        live.set(index, live.get(live.size() - 1));
+        live.remove(live.size() - 1);
+        return box;
+    }
+}
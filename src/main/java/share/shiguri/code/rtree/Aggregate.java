@@ -0,0 +1,75 @@
+package share.shiguri.code.rtree;
+
+/**
+ * @ClassName Aggregate
+ * @Description 条目数值负载的聚合信息：条目数、求和、最小值、最大值。既用于节点的子树摘要，也用于区域聚合查询的结果。
+ */
+public class Aggregate {
+    private long count;
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public static Aggregate create() {
+        return new Aggregate();
+    }
+
+    /**
+     * 累加一个条目的数值负载
+     * @param value 条目的数值负载
+     */
+    protected void add(double value) {
+        this.count += 1;
+        this.sum += value;
+        this.min = Math.min(this.min, value);
+        this.max = Math.max(this.max, value);
+    }
+
+    /**
+     * 合并另一个聚合结果，通常是一整棵子树的摘要。
+     * @param other Aggregate
+     */
+    protected void merge(Aggregate other) {
+        if (other == null || other.count == 0) {
+            return;
+        }
+        this.count += other.count;
+        this.sum += other.sum;
+        this.min = Math.min(this.min, other.min);
+        this.max = Math.max(this.max, other.max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * @return double 最小值，没有条目时为 Double.NaN
+     */
+    public double getMin() {
+        return count == 0 ? Double.NaN : min;
+    }
+
+    /**
+     * @return double 最大值，没有条目时为 Double.NaN
+     */
+    public double getMax() {
+        return count == 0 ? Double.NaN : max;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append("Aggregate: {")
+                .append("count:").append(count)
+                .append(",sum:").append(sum)
+                .append(",min:").append(getMin())
+                .append(",max:").append(getMax())
+                .append("}");
+        return stringBuilder.toString();
+    }
+}
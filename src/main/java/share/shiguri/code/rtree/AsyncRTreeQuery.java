@@ -0,0 +1,234 @@
+package share.shiguri.code.rtree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @ClassName AsyncRTreeQuery
+ * @Description RTree的异步查询接口，范围查询与k近邻查询返回CompletableFuture。<br>
+ * 在coalesceMillis时间窗内到达的范围查询会被合并：窗口相交的查询合成一组，每组只遍历一次树（以各窗口的并集为查询窗口），
+ * 再按各自的窗口过滤结果。相同的k近邻查询在执行期间共享同一个结果。<br>
+ * 查询期间RTree不能被并发修改，调用者需要自行保证（例如只读的树，或在外部加读写锁）。
+ */
+public class AsyncRTreeQuery {
+    private final RTree rTree;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService scheduler;
+    // 合并范围查询的时间窗，为0时不合并
+    private final long coalesceMillis;
+    // 同时进行的树遍历数目上限，对任意executor（包括虚拟线程的executor）都生效
+    private final Semaphore traversals;
+
+    private List<PendingSearch> pending = new ArrayList<>();
+    private final ConcurrentMap<List<Object>, CompletableFuture<List<MaximumBoundingBox>>> nearestInFlight =
+            new ConcurrentHashMap<>();
+
+    public AsyncRTreeQuery(RTree rTree, ExecutorService executor, long coalesceMillis, int maxConcurrentTraversals) {
+        if (rTree == null || executor == null) {
+            throw new IllegalArgumentException("rTree and executor can't be null");
+        }
+        if (coalesceMillis < 0 || maxConcurrentTraversals < 1) {
+            throw new IllegalArgumentException("coalesceMillis must not be negative and maxConcurrentTraversals must more than 0");
+        }
+        this.rTree = rTree;
+        this.executor = executor;
+        this.coalesceMillis = coalesceMillis;
+        this.traversals = new Semaphore(maxConcurrentTraversals);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rtree-query-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 创建一个有界的线程池：固定线程数，任务队列满时拒绝新的任务，对应的Future以RejectedExecutionException结束。
+     * @param threads 线程数
+     * @param queueSize 任务队列长度
+     * @return ExecutorService
+     */
+    public static ExecutorService newBoundedExecutor(int threads, int queueSize) {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 异步范围查询
+     * @param window 查询窗口
+     * @return CompletableFuture<List<MaximumBoundingBox>>
+     */
+    public CompletableFuture<List<MaximumBoundingBox>> searchAsync(MaximumBoundingBox window) {
+        if (window == null || window.dimension() != rTree.getDimension()) {
+            throw new IllegalArgumentException("window is null or its dimension not equal");
+        }
+
+        PendingSearch search = new PendingSearch(window);
+        if (coalesceMillis == 0) {
+            List<PendingSearch> group = new ArrayList<>();
+            group.add(search);
+            submit(group);
+            return search.future;
+        }
+
+        synchronized (this) {
+            pending.add(search);
+            if (pending.size() == 1) {
+                // 时间窗内的第一个查询负责安排合并
+                scheduler.schedule(this::drain, coalesceMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        return search.future;
+    }
+
+    /**
+     * 异步k近邻查询，相同的point与k在执行期间只遍历一次
+     * @param point 查询点
+     * @param k 返回的条目数目
+     * @return CompletableFuture<List<MaximumBoundingBox>>
+     */
+    public CompletableFuture<List<MaximumBoundingBox>> nearestAsync(Point point, int k) {
+        if (point == null || point.dimension() != rTree.getDimension()) {
+            throw new IllegalArgumentException("point is null or its dimension not equal");
+        }
+
+        List<Object> key = new ArrayList<>();
+        key.add(point);
+        key.add(k);
+        CompletableFuture<List<MaximumBoundingBox>> created = new CompletableFuture<>();
+        CompletableFuture<List<MaximumBoundingBox>> existing = nearestInFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing.thenApply(ArrayList::new);
+        }
+
+        execute(created, () -> {
+            try {
+                created.complete(rTree.nearest(point, k));
+            } finally {
+                nearestInFlight.remove(key, created);
+            }
+        }, () -> nearestInFlight.remove(key, created));
+        return created;
+    }
+
+    /**
+     * 停止合并线程。executor由调用者创建，也由调用者关闭。
+     */
+    public void close() {
+        scheduler.shutdown();
+    }
+
+    /**
+     * 取出时间窗内累积的所有范围查询，把窗口相交的查询合成一组，每组提交一次遍历
+     */
+    private void drain() {
+        List<PendingSearch> batch;
+        synchronized (this) {
+            batch = pending;
+            pending = new ArrayList<>();
+        }
+
+        List<List<PendingSearch>> groups = new ArrayList<>();
+        List<MaximumBoundingBox> unions = new ArrayList<>();
+        for (PendingSearch search : batch) {
+            int target = -1;
+            for (int index = 0; index < groups.size(); index++) {
+                if (unions.get(index).isIntersection(search.window)) {
+                    target = index;
+                    break;
+                }
+            }
+            if (target == -1) {
+                groups.add(new ArrayList<>());
+                unions.add(search.window);
+                target = groups.size() - 1;
+            } else {
+                unions.set(target, unions.get(target).unionAsMaximumBoundingBox(search.window));
+            }
+            groups.get(target).add(search);
+        }
+
+        for (List<PendingSearch> group : groups) {
+            submit(group);
+        }
+    }
+
+    /**
+     * 对一组窗口相交的查询只遍历一次树，再按各自窗口过滤
+     */
+    private void submit(List<PendingSearch> group) {
+        CompletableFuture<Void> groupFuture = new CompletableFuture<>();
+        groupFuture.whenComplete((ignored, error) -> {
+            if (error != null) {
+                for (PendingSearch search : group) {
+                    search.future.completeExceptionally(error);
+                }
+            }
+        });
+
+        execute(groupFuture, () -> {
+            MaximumBoundingBox union = group.get(0).window;
+            for (PendingSearch search : group) {
+                union = union.unionAsMaximumBoundingBox(search.window);
+            }
+            List<MaximumBoundingBox> candidates = rTree.search(union);
+            for (PendingSearch search : group) {
+                if (group.size() == 1) {
+                    search.future.complete(candidates);
+                    continue;
+                }
+                List<MaximumBoundingBox> result = new ArrayList<>();
+                for (MaximumBoundingBox box : candidates) {
+                    if (search.window.isIntersection(box)) {
+                        result.add(box);
+                    }
+                }
+                search.future.complete(result);
+            }
+            groupFuture.complete(null);
+        }, () -> { });
+    }
+
+    /**
+     * 在executor中执行一次树遍历，遍历前获取许可。任务被拒绝或抛出异常时，future以异常结束。
+     */
+    private void execute(CompletableFuture<?> future, Runnable traversal, Runnable onFailure) {
+        try {
+            executor.execute(() -> {
+                try {
+                    traversals.acquire();
+                    try {
+                        traversal.run();
+                    } finally {
+                        traversals.release();
+                    }
+                } catch (Throwable error) {
+                    onFailure.run();
+                    future.completeExceptionally(error);
+                }
+            });
+        } catch (RejectedExecutionException error) {
+            onFailure.run();
+            future.completeExceptionally(error);
+        }
+    }
+
+    private static class PendingSearch {
+        private final MaximumBoundingBox window;
+        private final CompletableFuture<List<MaximumBoundingBox>> future = new CompletableFuture<>();
+
+        PendingSearch(MaximumBoundingBox window) {
+            this.window = window;
+        }
+    }
+}
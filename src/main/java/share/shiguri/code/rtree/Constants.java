@@ -10,6 +10,13 @@ public class Constants {
     public static final int RTREE_QUADRATIC = 1; // 二维
     public static final int RTREE_EXPONENTIAL = 2; // 多维
     public static final int RSTAR = 3; // 星型
+    public static final int XTREE = 4; // X树，高维数据，带超级节点
+    public static final int HILBERT = 5; // Hilbert R树
+
+    // X树分裂时允许的最大重叠率，超过则尝试无重叠分裂或扩展为超级节点
+    public static final double XTREE_MAX_OVERLAP = 0.2;
+    // X树无重叠分裂时每组至少分到的条目比例
+    public static final double XTREE_MIN_FANOUT = 0.35;
 
     public static final int NIL = -1;
 }
@@ -0,0 +1,89 @@
+package share.shiguri.code.rtree;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+/**
+ * @ClassName DoubleStore
+ * @Description 定长的double存储，供FrozenRTree存放边界与负载。堆内版本是一个double数组；
+ * 堆外版本由若干direct ByteBuffer分块组成，数据不在Java堆中，GC只需扫描少量缓冲区对象。
+ */
+abstract class DoubleStore {
+    // 堆外存储每块 2^27 个double，即1GB，避免单个ByteBuffer超过int寻址范围
+    private static final int CHUNK_SHIFT = 27;
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+    abstract double get(long index);
+
+    abstract void set(long index, double value);
+
+    abstract long size();
+
+    static DoubleStore heap(long size) {
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("heap store is too large, use off-heap store instead");
+        }
+        return new HeapStore((int) size);
+    }
+
+    static DoubleStore direct(long size) {
+        return new DirectStore(size);
+    }
+
+    private static class HeapStore extends DoubleStore {
+        private final double[] data;
+
+        private HeapStore(int size) {
+            this.data = new double[size];
+        }
+
+        @Override
+        double get(long index) {
+            return data[(int) index];
+        }
+
+        @Override
+        void set(long index, double value) {
+            data[(int) index] = value;
+        }
+
+        @Override
+        long size() {
+            return data.length;
+        }
+    }
+
+    private static class DirectStore extends DoubleStore {
+        private final DoubleBuffer[] chunks;
+        private final long size;
+
+        private DirectStore(long size) {
+            this.size = size;
+            int chunkCount = (int) ((size + CHUNK_MASK) >>> CHUNK_SHIFT);
+            this.chunks = new DoubleBuffer[Math.max(chunkCount, 1)];
+            for (int chunk = 0; chunk < chunks.length; chunk++) {
+                long remaining = size - ((long) chunk << CHUNK_SHIFT);
+                int chunkSize = (int) Math.max(Math.min(remaining, 1 << CHUNK_SHIFT), 0);
+                chunks[chunk] = ByteBuffer.allocateDirect(chunkSize * Double.BYTES)
+                        .order(ByteOrder.nativeOrder())
+                        .asDoubleBuffer();
+            }
+        }
+
+        @Override
+        double get(long index) {
+            return chunks[(int) (index >>> CHUNK_SHIFT)].get((int) (index & CHUNK_MASK));
+        }
+
+        @Override
+        void set(long index, double value) {
+            chunks[(int) (index >>> CHUNK_SHIFT)].put((int) (index & CHUNK_MASK), value);
+        }
+
+        @Override
+        long size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package share.shiguri.code.rtree;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.function.LongSupplier;
+
+/**
+ * @ClassName ExpiryEvictor
+ * @Description 后台移除RTree中过期的条目。<br>
+ * 每次运行把过期条目分成若干批，每批最多batchSize个，每批单独持有一次lock，批与批之间释放锁，
+ * 因此每次持锁的时间有上限，前台的读写不会被大量过期条目长时间阻塞；单次运行的总时间超过sliceMillis后停止，
+ * 剩余的过期条目留给下一次运行。<br>
+ * RTree本身不支持并发修改，lock必须是前台修改树时使用的同一把锁（例如读写锁的写锁）。
+ */
+public class ExpiryEvictor {
+    private final RTree rTree;
+    private final Lock lock;
+    // 每次持锁最多移除的条目数
+    private final int batchSize;
+    // 单次运行的时间上限
+    private final long sliceNanos;
+    // 与插入时的过期时间使用同一时钟
+    private final LongSupplier clock;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicLong evictedCount = new AtomicLong();
+
+    public ExpiryEvictor(RTree rTree, Lock lock, int batchSize, long sliceMillis) {
+        this(rTree, lock, batchSize, sliceMillis, System::currentTimeMillis);
+    }
+
+    public ExpiryEvictor(RTree rTree, Lock lock, int batchSize, long sliceMillis, LongSupplier clock) {
+        if (rTree == null || lock == null || clock == null) {
+            throw new IllegalArgumentException("rTree, lock and clock can't be null");
+        }
+        if (batchSize < 1 || sliceMillis < 0) {
+            throw new IllegalArgumentException("batchSize must more than 0 and sliceMillis must not be negative");
+        }
+        this.rTree = rTree;
+        this.lock = lock;
+        this.batchSize = batchSize;
+        this.sliceNanos = TimeUnit.MILLISECONDS.toNanos(sliceMillis);
+        this.clock = clock;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rtree-expiry-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 开始每隔periodMillis毫秒运行一次
+     * @param periodMillis 运行间隔
+     */
+    public void start(long periodMillis) {
+        scheduler.scheduleWithFixedDelay(this::evict, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止后台运行
+     */
+    public void close() {
+        scheduler.shutdown();
+    }
+
+    /**
+     * 立即运行一次：按批移除过期的条目，直到没有过期的条目或用完时间片
+     * @return int 本次移除的条目数
+     */
+    public int evict() {
+        long deadline = System.nanoTime() + sliceNanos;
+        long now = clock.getAsLong();
+        int total = 0;
+        while (true) {
+            int removed;
+            lock.lock();
+            try {
+                removed = rTree.evictExpired(now, batchSize);
+            } finally {
+                lock.unlock();
+            }
+            total += removed;
+            if (removed < batchSize || System.nanoTime() >= deadline) {
+                break;
+            }
+        }
+        evictedCount.addAndGet(total);
+        return total;
+    }
+
+    /**
+     * @return long 累计移除的条目数
+     */
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+}
@@ -0,0 +1,632 @@
+package share.shiguri.code.rtree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * @ClassName FrozenRTree
+ * @Description 只读的静态压缩R树。所有节点的边界按层（广度优先，根节点在最前）存放在一个double数组中，
+ * 子节点的位置由节点序号计算得到，不保存任何子节点引用。构建完成后不可修改，可在多个查询线程间直接共享。
+ * 边界与负载可以放在堆外（见DoubleStore），此时堆内只保留少量描述层级的数组。<br>
+ * 可以把根节点与叶子条目之间的各层节点边界量化为相对父节点边界的8位或16位偏移：下界向下取整、上界向上取整，
+ * 解码后的边界总是包含精确边界，剪枝仍然正确，只会多访问少量节点；根节点与叶子条目保持精确坐标。
+ * 中间各层在每次查询时都会被扫描，量化后占用的内存是double的1/8或1/4，大索引的上层也能留在缓存中。
+ */
+public class FrozenRTree {
+    private final int dimension;
+    // 每个节点的子节点数目上限
+    private final int nodeCapacity;
+    // 叶子条目数目
+    private final int size;
+    // 每个盒子占 2 * dimension 个double：先是leftBottom的各维坐标，再是rightTop的各维坐标
+    // 量化时只保存根节点（位置0）与叶子条目（从位置1开始）的边界
+    private final DoubleStore bounds;
+    // 中间各层边界的量化位数，0表示不量化
+    private final int quantizeBits;
+    // 中间各层（盒子序号从1到levelOffsets[0] - 1）边界的量化编码，8位时存放在codes8中，16位时存放在codes16中
+    private final byte[] codes8;
+    private final char[] codes16;
+    // 与叶子条目一一对应的数值负载
+    private final DoubleStore values;
+    // levelSizes[level] 为该层的盒子数目，level 0 为叶子条目，最高层为根节点
+    private final int[] levelSizes;
+    // levelOffsets[level] 为该层第一个盒子在bounds中的盒子序号
+    private final int[] levelOffsets;
+
+    private FrozenRTree(int dimension, int nodeCapacity, int size, DoubleStore bounds, DoubleStore values,
+                        int[] levelSizes, int[] levelOffsets, int quantizeBits, int[] codes) {
+        this.dimension = dimension;
+        this.nodeCapacity = nodeCapacity;
+        this.size = size;
+        this.bounds = bounds;
+        this.quantizeBits = quantizeBits;
+        this.codes8 = quantizeBits == 8 ? new byte[codes.length] : null;
+        this.codes16 = quantizeBits == 16 ? new char[codes.length] : null;
+        for (int coordinate = 0; quantizeBits != 0 && coordinate < codes.length; coordinate++) {
+            if (quantizeBits == 8) {
+                codes8[coordinate] = (byte) codes[coordinate];
+            } else {
+                codes16[coordinate] = (char) codes[coordinate];
+            }
+        }
+        this.values = values;
+        this.levelSizes = levelSizes;
+        this.levelOffsets = levelOffsets;
+    }
+
+    /**
+     * 以STR(Sort-Tile-Recursive)顺序打包一组条目，构建静态R树
+     * @param boxes 叶子条目
+     * @param values 与boxes一一对应的数值负载，可为null
+     * @param nodeCapacity 节点容量，至少为2
+     * @param dimension 维度
+     * @return FrozenRTree
+     */
+    public static FrozenRTree create(MaximumBoundingBox[] boxes, double[] values, int nodeCapacity, int dimension) {
+        return create(boxes, values, nodeCapacity, dimension, false);
+    }
+
+    /**
+     * 以STR顺序打包一组条目，构建静态R树
+     * @param boxes 叶子条目
+     * @param values 与boxes一一对应的数值负载，可为null
+     * @param nodeCapacity 节点容量，至少为2
+     * @param dimension 维度
+     * @param offHeap 为true时边界与负载存放在堆外的direct ByteBuffer中
+     * @return FrozenRTree
+     */
+    public static FrozenRTree create(MaximumBoundingBox[] boxes, double[] values, int nodeCapacity, int dimension,
+                                     boolean offHeap) {
+        return create(boxes, values, nodeCapacity, dimension, offHeap, 0);
+    }
+
+    /**
+     * 以STR顺序打包一组条目，构建静态R树，并量化中间各层的节点边界
+     * @param boxes 叶子条目
+     * @param values 与boxes一一对应的数值负载，可为null
+     * @param nodeCapacity 节点容量，至少为2
+     * @param dimension 维度
+     * @param offHeap 为true时边界与负载存放在堆外的direct ByteBuffer中
+     * @param quantizeBits 中间各层边界的量化位数：0（不量化）、8 或 16
+     * @return FrozenRTree
+     */
+    public static FrozenRTree create(MaximumBoundingBox[] boxes, double[] values, int nodeCapacity, int dimension,
+                                     boolean offHeap, int quantizeBits) {
+        if (quantizeBits != 0 && quantizeBits != 8 && quantizeBits != 16) {
+            throw new IllegalArgumentException("quantizeBits must be 0, 8 or 16");
+        }
+        if (boxes == null) {
+            throw new IllegalArgumentException("boxes can't be null");
+        }
+        if (values != null && values.length != boxes.length) {
+            throw new IllegalArgumentException("values' length must equal boxes' length");
+        }
+        if (nodeCapacity < 2) {
+            throw new IllegalArgumentException("nodeCapacity must more than 1");
+        }
+        for (MaximumBoundingBox box : boxes) {
+            if (box == null || box.dimension() != dimension) {
+                throw new IllegalArgumentException("box is null or its dimension not equal");
+            }
+        }
+
+        int size = boxes.length;
+        // 计算每层的盒子数目，叶子条目之上至少有一个根节点
+        List<Integer> sizes = new ArrayList<>();
+        sizes.add(size);
+        int levelSize = size;
+        do {
+            levelSize = (levelSize + nodeCapacity - 1) / nodeCapacity;
+            sizes.add(Math.max(levelSize, 1));
+        } while (levelSize > 1);
+
+        int levelCount = sizes.size();
+        int[] levelSizes = new int[levelCount];
+        int[] levelOffsets = new int[levelCount];
+        int total = 0;
+        for (int level = levelCount - 1; level >= 0; level--) {
+            levelSizes[level] = sizes.get(level);
+            levelOffsets[level] = total;
+            total += levelSizes[level];
+        }
+
+        int stride = 2 * dimension;
+        // 量化时先在堆内构建全部边界，量化后只保留根节点与叶子条目
+        boolean full = quantizeBits == 0;
+        DoubleStore bounds = offHeap && full
+                ? DoubleStore.direct((long) total * stride) : DoubleStore.heap((long) total * stride);
+        DoubleStore packedValues = offHeap ? DoubleStore.direct(size) : DoubleStore.heap(size);
+
+        // 叶子条目按STR顺序写入
+        int[] order = sortTileRecursive(boxes, nodeCapacity, dimension);
+        for (int seq = 0; seq < size; seq++) {
+            MaximumBoundingBox box = boxes[order[seq]];
+            Point leftBottom = box.getLeftBottomPoint();
+            Point rightTop = box.getRightTopPoint();
+            long base = (long) (levelOffsets[0] + seq) * stride;
+            for (int index = 0; index < dimension; index++) {
+                bounds.set(base + index, leftBottom.getValueOfIndex(index));
+                bounds.set(base + dimension + index, rightTop.getValueOfIndex(index));
+            }
+            packedValues.set(seq, values == null ? 0d : values[order[seq]]);
+        }
+
+        // 自底向上计算每层节点的外包矩形
+        for (int level = 1; level < levelCount; level++) {
+            for (int node = 0; node < levelSizes[level]; node++) {
+                long base = (long) (levelOffsets[level] + node) * stride;
+                for (int index = 0; index < dimension; index++) {
+                    bounds.set(base + index, Double.POSITIVE_INFINITY);
+                    bounds.set(base + dimension + index, Double.NEGATIVE_INFINITY);
+                }
+                int first = node * nodeCapacity;
+                int last = Math.min(first + nodeCapacity, levelSizes[level - 1]);
+                for (int child = first; child < last; child++) {
+                    long childBase = (long) (levelOffsets[level - 1] + child) * stride;
+                    for (int index = 0; index < dimension; index++) {
+                        bounds.set(base + index, Math.min(bounds.get(base + index), bounds.get(childBase + index)));
+                        bounds.set(base + dimension + index,
+                                Math.max(bounds.get(base + dimension + index), bounds.get(childBase + dimension + index)));
+                    }
+                }
+            }
+        }
+
+        if (full) {
+            return new FrozenRTree(dimension, nodeCapacity, size, bounds, packedValues, levelSizes, levelOffsets, 0,
+                    new int[0]);
+        }
+
+        int[] codes = quantize(bounds, levelSizes, levelOffsets, nodeCapacity, dimension, quantizeBits);
+        long exactSize = (long) (size + 1) * stride;
+        DoubleStore exact = offHeap ? DoubleStore.direct(exactSize) : DoubleStore.heap(exactSize);
+        for (int index = 0; index < stride; index++) {
+            exact.set(index, bounds.get(index));
+        }
+        for (long index = 0; index < (long) size * stride; index++) {
+            exact.set(stride + index, bounds.get((long) levelOffsets[0] * stride + index));
+        }
+        return new FrozenRTree(dimension, nodeCapacity, size, exact, packedValues, levelSizes, levelOffsets,
+                quantizeBits, codes);
+    }
+
+    /**
+     * 自顶向下量化中间各层的边界。每个盒子以父节点解码后的边界为基准编码，解码后的边界包含精确边界，
+     * 因此也包含它的所有子节点，下一层可以继续以它为基准编码。
+     */
+    private static int[] quantize(DoubleStore bounds, int[] levelSizes, int[] levelOffsets, int nodeCapacity,
+                                   int dimension, int quantizeBits) {
+        int stride = 2 * dimension;
+        int levelCount = levelSizes.length;
+        int[] codes = new int[(levelOffsets[0] - 1) * stride];
+        long steps = (1L << quantizeBits) - 1;
+        // 上一层各节点解码后的边界，根节点是精确的
+        double[] parents = new double[stride];
+        for (int index = 0; index < stride; index++) {
+            parents[index] = bounds.get(index);
+        }
+        for (int level = levelCount - 2; level >= 1; level--) {
+            double[] decoded = new double[levelSizes[level] * stride];
+            for (int node = 0; node < levelSizes[level]; node++) {
+                int box = levelOffsets[level] + node;
+                int parentBase = node / nodeCapacity * stride;
+                for (int index = 0; index < dimension; index++) {
+                    double parentLow = parents[parentBase + index];
+                    double parentHigh = parents[parentBase + dimension + index];
+                    double low = bounds.get((long) box * stride + index);
+                    double high = bounds.get((long) box * stride + dimension + index);
+
+                    double step = (parentHigh - parentLow) / steps;
+                    // 下界向下取、上界向上取，解码后的盒子包含精确的盒子
+                    long lowCode = Math.max(0, Math.min(steps, floorCode(parentLow, parentHigh, step, low, steps)));
+                    long highCode = Math.max(0, Math.min(steps, ceilCode(parentLow, parentHigh, step, high, steps)));
+                    codes[(box - 1) * stride + index] = (int) lowCode;
+                    codes[(box - 1) * stride + dimension + index] = (int) highCode;
+                    decoded[node * stride + index] = decode(parentLow, parentHigh, step, lowCode, steps);
+                    decoded[node * stride + dimension + index] = decode(parentLow, parentHigh, step, highCode, steps);
+                }
+            }
+            parents = decoded;
+        }
+        return codes;
+    }
+
+    /**
+     * 解码第code个刻度。step为 (parentHigh - parentLow) / steps，编码与解码使用同样的计算，结果完全一致
+     */
+    private static double decode(double parentLow, double parentHigh, double step, long code, long steps) {
+        // 两端的刻度精确对应父节点的边界
+        if (code == steps) {
+            return parentHigh;
+        }
+        return code == 0 ? parentLow : parentLow + code * step;
+    }
+
+    /**
+     * 解码结果不大于value的最大刻度，不存在时为-1。编码下界时取该刻度，解码后的下界不会越过value
+     */
+    private static long floorCode(double parentLow, double parentHigh, double step, double value, long steps) {
+        if (value < parentLow) {
+            return -1;
+        }
+        if (value >= parentHigh) {
+            return steps;
+        }
+        long code = Math.max(0, Math.min(steps, (long) ((value - parentLow) / step)));
+        // 浮点误差可能使估算的刻度偏离一格，逐格修正
+        while (code < steps && decode(parentLow, parentHigh, step, code + 1, steps) <= value) {
+            code++;
+        }
+        while (code >= 0 && decode(parentLow, parentHigh, step, code, steps) > value) {
+            code--;
+        }
+        return code;
+    }
+
+    /**
+     * 解码结果不小于value的最小刻度，不存在时为steps + 1。编码上界时取该刻度，解码后的上界不会越过value
+     */
+    private static long ceilCode(double parentLow, double parentHigh, double step, double value, long steps) {
+        if (value <= parentLow) {
+            return 0;
+        }
+        if (value > parentHigh) {
+            return steps + 1;
+        }
+        long code = Math.max(0, Math.min(steps, (long) Math.ceil((value - parentLow) / step)));
+        while (code > 0 && decode(parentLow, parentHigh, step, code - 1, steps) >= value) {
+            code--;
+        }
+        while (code <= steps && decode(parentLow, parentHigh, step, code, steps) < value) {
+            code++;
+        }
+        return code;
+    }
+
+    private int codeAt(int coordinate) {
+        return codes8 != null ? codes8[coordinate] & 0xff : codes16[coordinate];
+    }
+
+    /**
+     * 把第box个盒子（必须在量化的中间层）以父节点解码后的边界parent为基准解码到target
+     */
+    private void decodeBox(int box, double[] parent, double[] target) {
+        long steps = (1L << quantizeBits) - 1;
+        int base = (box - 1) * 2 * dimension;
+        for (int index = 0; index < dimension; index++) {
+            double low = parent[index];
+            double high = parent[dimension + index];
+            double step = (high - low) / steps;
+            target[index] = decode(low, high, step, codeAt(base + index), steps);
+            target[dimension + index] = decode(low, high, step, codeAt(base + dimension + index), steps);
+        }
+    }
+
+    /**
+     * 按STR算法对条目排序：依次按各维的中心坐标切分成若干条带，使相邻的nodeCapacity个条目在空间上尽量聚集。
+     * @return int[] 排序后的条目在boxes中的索引
+     */
+    static int[] sortTileRecursive(MaximumBoundingBox[] boxes, int nodeCapacity, int dimension) {
+        Integer[] order = new Integer[boxes.length];
+        double[][] centers = new double[boxes.length][dimension];
+        for (int seq = 0; seq < boxes.length; seq++) {
+            order[seq] = seq;
+            Point leftBottom = boxes[seq].getLeftBottomPoint();
+            Point rightTop = boxes[seq].getRightTopPoint();
+            for (int index = 0; index < dimension; index++) {
+                centers[seq][index] = (leftBottom.getValueOfIndex(index) + rightTop.getValueOfIndex(index)) / 2;
+            }
+        }
+        sortTileRecursive(order, 0, order.length, 0, centers, nodeCapacity, dimension);
+
+        int[] result = new int[order.length];
+        for (int seq = 0; seq < order.length; seq++) {
+            result[seq] = order[seq];
+        }
+        return result;
+    }
+
+    private static void sortTileRecursive(Integer[] order, int from, int to, int axis, double[][] centers,
+                                          int nodeCapacity, int dimension) {
+        Arrays.sort(order, from, to, Comparator.comparingDouble(seq -> centers[seq][axis]));
+        int count = to - from;
+        if (axis == dimension - 1 || count <= nodeCapacity) {
+            return;
+        }
+
+        // 该范围需要的节点数，以及沿当前维切分的条带数
+        int pages = (count + nodeCapacity - 1) / nodeCapacity;
+        int slabs = (int) Math.ceil(Math.pow(pages, 1.0 / (dimension - axis)));
+        int slabSize = nodeCapacity * ((pages + slabs - 1) / slabs);
+        for (int start = from; start < to; start += slabSize) {
+            sortTileRecursive(order, start, Math.min(start + slabSize, to), axis + 1, centers, nodeCapacity, dimension);
+        }
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public int getNodeCapacity() {
+        return nodeCapacity;
+    }
+
+    /**
+     * @return int 中间各层边界的量化位数，0表示不量化
+     */
+    public int getQuantizeBits() {
+        return quantizeBits;
+    }
+
+    /**
+     * @return int 叶子条目数目
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 返回STR顺序下第index个叶子条目
+     * @param index (0 ~ size - 1)
+     * @return MaximumBoundingBox
+     */
+    public MaximumBoundingBox getEntry(int index) {
+        if (index < 0 || index >= size) {
+            throw new IllegalArgumentException("index out of FrozenRTree size");
+        }
+        return boxAt(levelOffsets[0] + index);
+    }
+
+    /**
+     * 返回STR顺序下第index个叶子条目的数值负载
+     * @param index (0 ~ size - 1)
+     * @return double
+     */
+    public double getValue(int index) {
+        if (index < 0 || index >= size) {
+            throw new IllegalArgumentException("index out of FrozenRTree size");
+        }
+        return values.get(index);
+    }
+
+    /**
+     * 范围查询，返回所有与window相交的条目
+     * @param window 查询窗口
+     * @return List<MaximumBoundingBox>
+     */
+    public List<MaximumBoundingBox> search(MaximumBoundingBox window) {
+        List<MaximumBoundingBox> result = new ArrayList<>();
+        double[] query = toArray(window);
+        int[] stack = newStack();
+        int top = 0;
+        stack[top++] = levelSizes.length - 1;
+        stack[top++] = 0;
+        double[][] decoded = newDecoded();
+        int[] limits = new int[2 * dimension];
+
+        while (top > 0 && size > 0) {
+            int node = stack[--top];
+            int level = stack[--top];
+            int childLevel = level - 1;
+            int first = node * nodeCapacity;
+            int last = Math.min(first + nodeCapacity, levelSizes[childLevel]);
+            double[] nodeBox = loadNode(level, node, decoded);
+            if (nodeBox != null) {
+                codeLimits(nodeBox, query, limits);
+            }
+            for (int child = first; child < last; child++) {
+                int box = levelOffsets[childLevel] + child;
+                if (nodeBox == null ? intersects(box, query) : codesIntersect(box, limits)) {
+                    if (childLevel == 0) {
+                        result.add(boxAt(box));
+                    } else {
+                        stack[top++] = childLevel;
+                        stack[top++] = child;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 返回与window相交的条目数目。由于子树覆盖的叶子条目区间可以直接计算，被window完全包含的子树不再向下遍历。
+     * @param window 查询窗口
+     * @return long
+     */
+    public long count(MaximumBoundingBox window) {
+        long count = 0;
+        double[] query = toArray(window);
+        int[] stack = newStack();
+        int top = 0;
+        stack[top++] = levelSizes.length - 1;
+        stack[top++] = 0;
+        double[][] decoded = newDecoded();
+        int[] limits = new int[2 * dimension];
+
+        while (top > 0 && size > 0) {
+            int node = stack[--top];
+            int level = stack[--top];
+            int childLevel = level - 1;
+            int first = node * nodeCapacity;
+            int last = Math.min(first + nodeCapacity, levelSizes[childLevel]);
+            double[] nodeBox = loadNode(level, node, decoded);
+            if (nodeBox != null) {
+                codeLimits(nodeBox, query, limits);
+            }
+            for (int child = first; child < last; child++) {
+                int box = levelOffsets[childLevel] + child;
+                int relation = nodeBox == null ? -1 : codesRelation(box, limits);
+                if (childLevel == 0) {
+                    count += intersects(box, query) ? 1 : 0;
+                } else if (relation == -1 ? enclosed(box, query) : relation == 2) {
+                    count += subtreeSize(childLevel, child);
+                } else if (relation == -1 ? intersects(box, query) : relation == 1) {
+                    stack[top++] = childLevel;
+                    stack[top++] = child;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 第level层第node个节点下的叶子条目数目，即区间 [node * cap^level, (node + 1) * cap^level) 与 [0, size) 的交集长度
+     */
+    private long subtreeSize(int level, int node) {
+        long span = 1;
+        for (int seq = 0; seq < level; seq++) {
+            span *= nodeCapacity;
+        }
+        long first = node * span;
+        return Math.min(first + span, size) - first;
+    }
+
+    /**
+     * 量化时为每层准备一个解码边界的缓冲区；不量化时返回null
+     */
+    private double[][] newDecoded() {
+        return quantizeBits == 0 ? null : new double[levelSizes.length][2 * dimension];
+    }
+
+    /**
+     * 量化时把第level层第node个节点的边界解码到decoded[level]并返回，供解码其子节点使用；
+     * 子节点是精确的叶子条目或不量化时返回null。<br>
+     * 深度优先遍历中，弹出一个节点时它的父节点是上一层最近弹出的节点，decoded[level + 1]中正是父节点的边界。
+     */
+    private double[] loadNode(int level, int node, double[][] decoded) {
+        if (decoded == null || level == 1) {
+            return null;
+        }
+        int box = levelOffsets[level] + node;
+        if (level == levelSizes.length - 1) {
+            for (int index = 0; index < 2 * dimension; index++) {
+                decoded[level][index] = bounds.get(index);
+            }
+        } else {
+            decodeBox(box, decoded[level + 1], decoded[level]);
+        }
+        return decoded[level];
+    }
+
+    /**
+     * 把查询窗口换算到节点的刻度上，之后子节点只需比较量化编码，不用解码。<br>
+     * limits[i]：子节点第i维下界的编码不超过它时，解码后的下界不超过窗口上界；<br>
+     * limits[dimension + i]：子节点第i维上界的编码不小于它时，解码后的上界不小于窗口下界。
+     */
+    private void codeLimits(double[] nodeBox, double[] query, int[] limits) {
+        long steps = (1L << quantizeBits) - 1;
+        for (int index = 0; index < dimension; index++) {
+            double low = nodeBox[index];
+            double high = nodeBox[dimension + index];
+            double step = (high - low) / steps;
+            limits[index] = (int) floorCode(low, high, step, query[dimension + index], steps);
+            limits[dimension + index] = (int) ceilCode(low, high, step, query[index], steps);
+        }
+    }
+
+    private boolean codesIntersect(int box, int[] limits) {
+        int base = (box - 1) * 2 * dimension;
+        if (codes8 != null) {
+            for (int index = 0; index < dimension; index++) {
+                if ((codes8[base + index] & 0xff) > limits[index]
+                        || (codes8[base + dimension + index] & 0xff) < limits[dimension + index]) {
+                    return false;
+                }
+            }
+        } else {
+            for (int index = 0; index < dimension; index++) {
+                if (codes16[base + index] > limits[index] || codes16[base + dimension + index] < limits[dimension + index]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 一次读取量化编码，同时判断解码后的盒子与窗口是否相交、是否落在窗口内，与codesIntersect使用同一组刻度
+     * @return int 0：不相交，1：相交但不落在窗口内，2：落在窗口内
+     */
+    private int codesRelation(int box, int[] limits) {
+        int base = (box - 1) * 2 * dimension;
+        boolean enclosed = true;
+        for (int index = 0; index < dimension; index++) {
+            int low = codes8 != null ? codes8[base + index] & 0xff : codes16[base + index];
+            int high = codes8 != null ? codes8[base + dimension + index] & 0xff : codes16[base + dimension + index];
+            if (low > limits[index] || high < limits[dimension + index]) {
+                return 0;
+            }
+            enclosed &= low >= limits[dimension + index] && high <= limits[index];
+        }
+        return enclosed ? 2 : 1;
+    }
+
+    /**
+     * 第box个盒子的精确边界在bounds中的起始位置。量化时只有根节点与叶子条目有精确边界。
+     */
+    private long exactBase(int box) {
+        int slot = quantizeBits == 0 ? box : (box < levelOffsets[0] ? 0 : box - levelOffsets[0] + 1);
+        return (long) slot * 2 * dimension;
+    }
+
+    private int[] newStack() {
+        // 深度优先遍历时，每层最多压入nodeCapacity个节点，每个节点占两个int
+        return new int[2 * (levelSizes.length * nodeCapacity + 1)];
+    }
+
+    private double[] toArray(MaximumBoundingBox window) {
+        if (window == null) {
+            throw new IllegalArgumentException("window can't be null");
+        }
+        if (window.dimension() != dimension) {
+            throw new IllegalArgumentException("dimension not equal");
+        }
+        double[] query = new double[2 * dimension];
+        Point leftBottom = window.getLeftBottomPoint();
+        Point rightTop = window.getRightTopPoint();
+        for (int index = 0; index < dimension; index++) {
+            query[index] = leftBottom.getValueOfIndex(index);
+            query[dimension + index] = rightTop.getValueOfIndex(index);
+        }
+        return query;
+    }
+
+    private boolean intersects(int box, double[] query) {
+        long base = exactBase(box);
+        for (int index = 0; index < dimension; index++) {
+            if (bounds.get(base + index) > query[dimension + index]
+                    || bounds.get(base + dimension + index) < query[index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean enclosed(int box, double[] query) {
+        long base = exactBase(box);
+        for (int index = 0; index < dimension; index++) {
+            if (bounds.get(base + index) < query[index]
+                    || bounds.get(base + dimension + index) > query[dimension + index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private MaximumBoundingBox boxAt(int box) {
+        long base = exactBase(box);
+        double[] leftBottom = new double[dimension];
+        double[] rightTop = new double[dimension];
+        for (int index = 0; index < dimension; index++) {
+            leftBottom[index] = bounds.get(base + index);
+            rightTop[index] = bounds.get(base + dimension + index);
+        }
+        if (Arrays.equals(leftBottom, rightTop)) {
+            return MaximumBoundingBox.create(Point.create(leftBottom));
+        }
+        return MaximumBoundingBox.create(Point.create(leftBottom), Point.create(rightTop));
+    }
+}
@@ -0,0 +1,248 @@
+package share.shiguri.code.rtree;
+
+/**
+ * @ClassName Geometry
+ * @Description 叶子条目的精确几何形状，与条目的MBB一起存放在叶子节点中，用于查询的精化阶段。<br>
+ * 多边形与折线是二维的，坐标按 x0, y0, x1, y1, ... 紧凑地存放在一个double数组中，多边形首尾自动闭合。
+ * 没有精确几何的条目以其MBB本身作为几何形状。
+ */
+public class Geometry {
+    public static final int BOX = 0;
+    public static final int POLYGON = 1;
+    public static final int POLYLINE = 2;
+
+    // 查询窗口与几何形状的关系
+    // 几何形状与窗口相交
+    public static final int INTERSECTS = 0;
+    // 几何形状包含整个窗口，窗口退化为点时即点在多边形内
+    public static final int CONTAINS = 1;
+
+    private final int type;
+    private final double[] coordinates;
+    private final MaximumBoundingBox box;
+
+    private Geometry(int type, double[] coordinates, MaximumBoundingBox box) {
+        this.type = type;
+        this.coordinates = coordinates;
+        this.box = box;
+    }
+
+    /**
+     * 由顶点坐标创建多边形，不需要重复首个顶点
+     * @param coordinates x0, y0, x1, y1, ... 至少3个顶点，数组不会被复制，创建后不能再修改
+     * @return Geometry
+     */
+    public static Geometry polygon(double[] coordinates) {
+        if (coordinates == null || coordinates.length < 6 || coordinates.length % 2 != 0) {
+            throw new IllegalArgumentException("polygon needs at least 3 vertices");
+        }
+        return new Geometry(POLYGON, coordinates, boundsOf(coordinates));
+    }
+
+    /**
+     * 由顶点坐标创建折线
+     * @param coordinates x0, y0, x1, y1, ... 至少2个顶点，数组不会被复制，创建后不能再修改
+     * @return Geometry
+     */
+    public static Geometry polyline(double[] coordinates) {
+        if (coordinates == null || coordinates.length < 4 || coordinates.length % 2 != 0) {
+            throw new IllegalArgumentException("polyline needs at least 2 vertices");
+        }
+        return new Geometry(POLYLINE, coordinates, boundsOf(coordinates));
+    }
+
+    /**
+     * 以MBB本身作为几何形状，不复制MBB
+     * @param box MaximumBoundingBox
+     * @return Geometry
+     */
+    public static Geometry box(MaximumBoundingBox box) {
+        if (box == null) {
+            throw new IllegalArgumentException("box can't be null");
+        }
+        return new Geometry(BOX, null, box);
+    }
+
+    private static MaximumBoundingBox boundsOf(double[] coordinates) {
+        double[] low = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        double[] high = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int index = 0; index < coordinates.length; index++) {
+            low[index % 2] = Math.min(low[index % 2], coordinates[index]);
+            high[index % 2] = Math.max(high[index % 2], coordinates[index]);
+        }
+        return MaximumBoundingBox.create(Point.create(low), Point.create(high));
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * @return MaximumBoundingBox 几何形状的外包矩形，也是它在树中的条目
+     */
+    public MaximumBoundingBox getMaximumBoundingBox() {
+        return box;
+    }
+
+    /**
+     * @return int 顶点数目，BOX为0
+     */
+    public int getVertexCount() {
+        return coordinates == null ? 0 : coordinates.length / 2;
+    }
+
+    public double getX(int vertex) {
+        return coordinates[vertex * 2];
+    }
+
+    public double getY(int vertex) {
+        return coordinates[vertex * 2 + 1];
+    }
+
+    /**
+     * 精确判断几何形状与窗口的关系
+     * @param window 查询窗口
+     * @param relation INTERSECTS 或 CONTAINS
+     * @return boolean
+     */
+    public boolean matches(MaximumBoundingBox window, int relation) {
+        return relation == CONTAINS ? contains(window) : intersects(window);
+    }
+
+    /**
+     * 几何形状是否与窗口相交（包括边界接触）
+     * @param window 二维查询窗口
+     * @return boolean
+     */
+    public boolean intersects(MaximumBoundingBox window) {
+        if (!box.isIntersection(window)) {
+            return false;
+        }
+        if (type == BOX || window.enclosure(box)) {
+            return true;
+        }
+
+        int vertices = getVertexCount();
+        int segments = type == POLYGON ? vertices : vertices - 1;
+        for (int segment = 0; segment < segments; segment++) {
+            int next = (segment + 1) % vertices;
+            if (segmentIntersects(getX(segment), getY(segment), getX(next), getY(next), window, false)) {
+                return true;
+            }
+        }
+        // 没有边与窗口相交时，只剩窗口整个落在多边形内的情况
+        return type == POLYGON && containsPoint(window.getLow(0), window.getLow(1));
+    }
+
+    /**
+     * 几何形状是否包含整个窗口
+     * @param window 二维查询窗口
+     * @return boolean
+     */
+    public boolean contains(MaximumBoundingBox window) {
+        if (!box.enclosure(window)) {
+            return false;
+        }
+        if (type == BOX) {
+            return true;
+        }
+
+        int vertices = getVertexCount();
+        if (type == POLYLINE) {
+            // 折线只能包含落在它上面的点
+            if (!window.isPoint()) {
+                return false;
+            }
+            for (int segment = 0; segment < vertices - 1; segment++) {
+                if (onSegment(getX(segment), getY(segment), getX(segment + 1), getY(segment + 1),
+                        window.getLow(0), window.getLow(1))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // 多边形：窗口的四个角都在多边形内，且没有边穿过窗口内部
+        double[] xs = {window.getLow(0), window.getHigh(0)};
+        double[] ys = {window.getLow(1), window.getHigh(1)};
+        for (double x : xs) {
+            for (double y : ys) {
+                if (!containsPoint(x, y)) {
+                    return false;
+                }
+            }
+        }
+        for (int segment = 0; segment < vertices; segment++) {
+            int next = (segment + 1) % vertices;
+            if (segmentIntersects(getX(segment), getY(segment), getX(next), getY(next), window, true)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 射线法判断点是否在多边形内（奇偶规则）
+     */
+    private boolean containsPoint(double x, double y) {
+        boolean inside = false;
+        int vertices = getVertexCount();
+        for (int current = 0, previous = vertices - 1; current < vertices; previous = current++) {
+            double xi = getX(current);
+            double yi = getY(current);
+            double xj = getX(previous);
+            double yj = getY(previous);
+            if (onSegment(xi, yi, xj, yj, x, y)) {
+                return true;
+            }
+            if ((yi > y) != (yj > y) && x < (xj - xi) * (y - yi) / (yj - yi) + xi) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    private static boolean onSegment(double x1, double y1, double x2, double y2, double x, double y) {
+        double cross = (x2 - x1) * (y - y1) - (y2 - y1) * (x - x1);
+        return cross == 0 && Math.min(x1, x2) <= x && x <= Math.max(x1, x2)
+                && Math.min(y1, y2) <= y && y <= Math.max(y1, y2);
+    }
+
+    /**
+     * Liang-Barsky裁剪判断线段是否与窗口相交
+     * @param interior 为true时只判断线段是否穿过窗口的开区间内部，窗口退化时内部为空
+     */
+    private static boolean segmentIntersects(double x1, double y1, double x2, double y2,
+                                             MaximumBoundingBox window, boolean interior) {
+        double minX = window.getLow(0);
+        double minY = window.getLow(1);
+        double maxX = window.getHigh(0);
+        double maxY = window.getHigh(1);
+        if (interior && (minX >= maxX || minY >= maxY)) {
+            return false;
+        }
+
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double[] p = {-dx, dx, -dy, dy};
+        double[] q = {x1 - minX, maxX - x1, y1 - minY, maxY - y1};
+        double enter = 0.0;
+        double leave = 1.0;
+        for (int side = 0; side < 4; side++) {
+            if (p[side] == 0) {
+                // 线段与该边平行：在外侧（内部判断时包括边上）则不相交
+                if (q[side] < 0 || (interior && q[side] == 0)) {
+                    return false;
+                }
+                continue;
+            }
+            double ratio = q[side] / p[side];
+            if (p[side] < 0) {
+                enter = Math.max(enter, ratio);
+            } else {
+                leave = Math.min(leave, ratio);
+            }
+        }
+        return interior ? enter < leave : enter <= leave;
+    }
+}
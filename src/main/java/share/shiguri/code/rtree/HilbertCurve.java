@@ -0,0 +1,58 @@
+package share.shiguri.code.rtree;
+
+/**
+ * @ClassName HilbertCurve
+ * @Description 多维Hilbert曲线编码，使用Skilling的转置算法(AxesToTranspose)，要求 维度 * 每维位数 <= 63。
+ */
+final class HilbertCurve {
+    private HilbertCurve() {
+    }
+
+    /**
+     * 返回网格坐标在Hilbert曲线上的序号
+     * @param coordinates 各维的网格坐标，取值范围 [0, 2^bits)，计算过程中会被修改
+     * @param bits 每维的位数
+     * @return long Hilbert值
+     */
+    static long index(long[] coordinates, int bits) {
+        int dimension = coordinates.length;
+        long highest = 1L << (bits - 1);
+
+        // 逆向消除旋转与翻转
+        for (long bit = highest; bit > 1; bit >>= 1) {
+            long mask = bit - 1;
+            for (int axis = 0; axis < dimension; axis++) {
+                if ((coordinates[axis] & bit) != 0) {
+                    coordinates[0] ^= mask;
+                } else {
+                    long swap = (coordinates[0] ^ coordinates[axis]) & mask;
+                    coordinates[0] ^= swap;
+                    coordinates[axis] ^= swap;
+                }
+            }
+        }
+
+        // 格雷编码
+        for (int axis = 1; axis < dimension; axis++) {
+            coordinates[axis] ^= coordinates[axis - 1];
+        }
+        long flip = 0;
+        for (long bit = highest; bit > 1; bit >>= 1) {
+            if ((coordinates[dimension - 1] & bit) != 0) {
+                flip ^= bit - 1;
+            }
+        }
+        for (int axis = 0; axis < dimension; axis++) {
+            coordinates[axis] ^= flip;
+        }
+
+        // 把转置形式的各位交错成一个整数
+        long index = 0;
+        for (int bit = bits - 1; bit >= 0; bit--) {
+            for (int axis = 0; axis < dimension; axis++) {
+                index = (index << 1) | ((coordinates[axis] >>> bit) & 1L);
+            }
+        }
+        return index;
+    }
+}
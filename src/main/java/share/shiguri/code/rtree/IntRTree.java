@@ -0,0 +1,613 @@
+package share.shiguri.code.rtree;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @ClassName IntRTree
+ * @Description 整数坐标的R树，适用于已经量化的数据，例如以微度表示的经纬度或网格编号。<br>
+ * 每个节点的所有条目边界按 low0, low1, ..., high0, high1, ... 的顺序紧凑地存放在一个int数组中，
+ * 坐标占用的内存是double的一半；相交、包含与删除时的条目匹配都是整数比较，没有浮点数相等判断的问题。<br>
+ * 分裂采用二次分裂。体积与扩大量在long中精确计算，超出long范围时改用BigInteger，任何坐标下都不会溢出。
+ */
+public class IntRTree {
+    private final int nodeCapacity;
+    private final double fillFactor;
+    private final int dimension;
+    // 每个条目在bounds中占用的int数目
+    private final int stride;
+    private Node root;
+    private int size;
+
+    /**
+     * 节点。叶子节点的children为null
+     */
+    private static final class Node {
+        private final int[] bounds;
+        private final Node[] children;
+        private Node parent;
+        private int count;
+
+        private Node(boolean leaf, int capacity, int stride) {
+            // 多出来的一个用于节点的分裂
+            this.bounds = new int[(capacity + 1) * stride];
+            this.children = leaf ? null : new Node[capacity + 1];
+        }
+
+        private boolean isLeaf() {
+            return children == null;
+        }
+    }
+
+    public IntRTree(int nodeCapacity, double fillFactor, int dimension) {
+        if (nodeCapacity < 2) {
+            throw new IllegalArgumentException("nodeCapacity must more than 1");
+        }
+        if (dimension < 1) {
+            throw new IllegalArgumentException("dimension must more than 0");
+        }
+        this.nodeCapacity = nodeCapacity;
+        this.fillFactor = fillFactor;
+        this.dimension = dimension;
+        this.stride = 2 * dimension;
+        this.root = new Node(true, nodeCapacity, stride);
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * @return int 条目数目
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean insert(int[] point) {
+        return insert(point, point);
+    }
+
+    /**
+     * 插入一个整数坐标的盒子
+     * @param low 每维的下界
+     * @param high 每维的上界，不小于下界
+     * @return boolean
+     */
+    public boolean insert(int[] low, int[] high) {
+        int[] box = checkBox(low, high);
+        insertBox(box, 0);
+        size += 1;
+        return true;
+    }
+
+    public boolean delete(int[] point) {
+        return delete(point, point);
+    }
+
+    /**
+     * 删除一个与给定盒子坐标完全相同的条目
+     * @param low 每维的下界
+     * @param high 每维的上界
+     * @return boolean 条目不存在时返回false
+     */
+    public boolean delete(int[] low, int[] high) {
+        int[] box = checkBox(low, high);
+        Node leaf = findLeaf(root, box);
+        if (leaf == null) {
+            return false;
+        }
+        int index = 0;
+        while (!equalsAt(leaf.bounds, index * stride, box)) {
+            index++;
+        }
+        removeEntry(leaf, index);
+        size -= 1;
+        condense(leaf);
+        return true;
+    }
+
+    /**
+     * 查询与窗口相交（包括边界接触）的所有条目
+     * @param low 窗口每维的下界
+     * @param high 窗口每维的上界
+     * @return List<int[]> 每个条目为 low0, low1, ..., high0, high1, ... 的新数组
+     */
+    public List<int[]> search(int[] low, int[] high) {
+        int[] window = checkBox(low, high);
+        List<int[]> result = new ArrayList<>();
+        search(root, window, result);
+        return result;
+    }
+
+    /**
+     * @param low 窗口每维的下界
+     * @param high 窗口每维的上界
+     * @return int 与窗口相交的条目数目
+     */
+    public int count(int[] low, int[] high) {
+        int[] window = checkBox(low, high);
+        return count(root, window);
+    }
+
+    /**
+     * 精确计算盒子的体积（二维时为面积），每维边长为 high - low
+     * @param low 每维的下界
+     * @param high 每维的上界
+     * @return BigInteger
+     */
+    public static BigInteger volume(int[] low, int[] high) {
+        if (low == null || high == null || low.length != high.length) {
+            throw new IllegalArgumentException("low and high must have the same dimension");
+        }
+        int[] box = new int[low.length * 2];
+        System.arraycopy(low, 0, box, 0, low.length);
+        System.arraycopy(high, 0, box, low.length, high.length);
+        return Volume.of(box, 0, null, 0, low.length).toBigInteger();
+    }
+
+    private int[] checkBox(int[] low, int[] high) {
+        if (low == null || high == null || low.length != dimension || high.length != dimension) {
+            throw new IllegalArgumentException("box is null or its dimension not equal");
+        }
+        int[] box = new int[stride];
+        for (int index = 0; index < dimension; index++) {
+            if (low[index] > high[index]) {
+                throw new IllegalArgumentException("low must not be greater than high");
+            }
+            box[index] = low[index];
+            box[dimension + index] = high[index];
+        }
+        return box;
+    }
+
+    /**
+     * 把box插入到level层（叶子为0）的节点中，level大于0时box是子树child的外包矩形
+     */
+    private void insertBox(int[] box, int level) {
+        insertBox(box, null, level);
+    }
+
+    private void insertBox(int[] box, Node child, int level) {
+        Node node = chooseNode(box, level);
+        addEntry(node, box, 0, child);
+        Node split = node.count > nodeCapacity ? split(node) : null;
+        adjust(node, split);
+    }
+
+    /**
+     * 从根节点向下选择扩大量最小的子节点，扩大量相同时选体积小的，直到level层
+     */
+    private Node chooseNode(int[] box, int level) {
+        Node node = root;
+        int depth = height() - 1;
+        while (depth > level) {
+            int best = 0;
+            Volume bestEnlargement = null;
+            Volume bestVolume = null;
+            for (int index = 0; index < node.count; index++) {
+                int base = index * stride;
+                Volume volume = Volume.of(node.bounds, base, null, 0, dimension);
+                Volume enlargement = Volume.of(node.bounds, base, box, 0, dimension).subtract(volume);
+                int order = bestEnlargement == null ? -1 : enlargement.compareTo(bestEnlargement);
+                if (order < 0 || (order == 0 && volume.compareTo(bestVolume) < 0)) {
+                    best = index;
+                    bestEnlargement = enlargement;
+                    bestVolume = volume;
+                }
+            }
+            node = node.children[best];
+            depth--;
+        }
+        return node;
+    }
+
+    private int height() {
+        int height = 1;
+        for (Node node = root; !node.isLeaf(); node = node.children[0]) {
+            height++;
+        }
+        return height;
+    }
+
+    /**
+     * 从node开始向上更新父节点中的外包矩形，并把分裂出的节点加入父节点，必要时继续分裂
+     */
+    private void adjust(Node node, Node split) {
+        while (node != root) {
+            Node parent = node.parent;
+            cover(node, parent.bounds, indexOf(parent, node) * stride);
+            Node parentSplit = null;
+            if (split != null) {
+                addChild(parent, split);
+                if (parent.count > nodeCapacity) {
+                    parentSplit = split(parent);
+                }
+            }
+            node = parent;
+            split = parentSplit;
+        }
+        if (split != null) {
+            // 根节点分裂，创建新的根节点
+            Node newRoot = new Node(false, nodeCapacity, stride);
+            addChild(newRoot, node);
+            addChild(newRoot, split);
+            root = newRoot;
+        }
+    }
+
+    private void addChild(Node parent, Node child) {
+        int[] box = new int[stride];
+        cover(child, box, 0);
+        addEntry(parent, box, 0, child);
+    }
+
+    private void addEntry(Node node, int[] source, int sourceBase, Node child) {
+        System.arraycopy(source, sourceBase, node.bounds, node.count * stride, stride);
+        if (child != null) {
+            node.children[node.count] = child;
+            child.parent = node;
+        }
+        node.count += 1;
+    }
+
+    private void removeEntry(Node node, int index) {
+        int moved = node.count - index - 1;
+        System.arraycopy(node.bounds, (index + 1) * stride, node.bounds, index * stride, moved * stride);
+        if (!node.isLeaf()) {
+            System.arraycopy(node.children, index + 1, node.children, index, moved);
+            node.children[node.count - 1] = null;
+        }
+        node.count -= 1;
+    }
+
+    private static int indexOf(Node parent, Node child) {
+        for (int index = 0; index < parent.count; index++) {
+            if (parent.children[index] == child) {
+                return index;
+            }
+        }
+        throw new IllegalStateException("child not found in parent");
+    }
+
+    /**
+     * 把node所有条目的外包矩形写入target的base位置
+     */
+    private void cover(Node node, int[] target, int base) {
+        for (int index = 0; index < dimension; index++) {
+            int low = Integer.MAX_VALUE;
+            int high = Integer.MIN_VALUE;
+            for (int entry = 0; entry < node.count; entry++) {
+                low = Math.min(low, node.bounds[entry * stride + index]);
+                high = Math.max(high, node.bounds[entry * stride + dimension + index]);
+            }
+            target[base + index] = low;
+            target[base + dimension + index] = high;
+        }
+    }
+
+    /**
+     * 二次分裂：node中有nodeCapacity + 1个条目，一组留在node中，另一组移入新节点
+     * @return Node 新节点
+     */
+    private Node split(Node node) {
+        int total = node.count;
+        int[] entries = Arrays.copyOf(node.bounds, total * stride);
+        Node[] children = node.isLeaf() ? null : Arrays.copyOf(node.children, total);
+        int minCount = Math.max(1, (int) Math.round(nodeCapacity * fillFactor));
+        minCount = Math.min(minCount, total / 2);
+
+        // pickSeeds：两者外包矩形中浪费的体积最大的一对作为种子
+        int seedOne = 0;
+        int seedTwo = 1;
+        Volume worst = null;
+        for (int one = 0; one < total; one++) {
+            Volume volumeOne = Volume.of(entries, one * stride, null, 0, dimension);
+            for (int two = one + 1; two < total; two++) {
+                Volume waste = Volume.of(entries, one * stride, entries, two * stride, dimension)
+                        .subtract(volumeOne)
+                        .subtract(Volume.of(entries, two * stride, null, 0, dimension));
+                if (worst == null || waste.compareTo(worst) > 0) {
+                    worst = waste;
+                    seedOne = one;
+                    seedTwo = two;
+                }
+            }
+        }
+
+        Node sibling = new Node(node.isLeaf(), nodeCapacity, stride);
+        Arrays.fill(node.bounds, 0);
+        if (children != null) {
+            Arrays.fill(node.children, null);
+        }
+        node.count = 0;
+        Node[] groups = {node, sibling};
+        int[][] covers = {Arrays.copyOfRange(entries, seedOne * stride, (seedOne + 1) * stride),
+                Arrays.copyOfRange(entries, seedTwo * stride, (seedTwo + 1) * stride)};
+        addEntry(node, entries, seedOne * stride, children == null ? null : children[seedOne]);
+        addEntry(sibling, entries, seedTwo * stride, children == null ? null : children[seedTwo]);
+
+        boolean[] assigned = new boolean[total];
+        assigned[seedOne] = true;
+        assigned[seedTwo] = true;
+        int remaining = total - 2;
+        while (remaining > 0) {
+            int group;
+            int next = -1;
+            if (node.count + remaining == minCount) {
+                group = 0;
+            } else if (sibling.count + remaining == minCount) {
+                group = 1;
+            } else {
+                // pickNext：对两组扩大量差别最大的条目
+                Volume bestDifference = null;
+                group = 0;
+                for (int entry = 0; entry < total; entry++) {
+                    if (assigned[entry]) {
+                        continue;
+                    }
+                    Volume one = enlargement(covers[0], entries, entry * stride);
+                    Volume two = enlargement(covers[1], entries, entry * stride);
+                    Volume difference = one.subtract(two).abs();
+                    if (bestDifference == null || difference.compareTo(bestDifference) > 0) {
+                        bestDifference = difference;
+                        next = entry;
+                        group = preferredGroup(one, two, covers, node.count, sibling.count);
+                    }
+                }
+            }
+            if (next == -1) {
+                // 剩余条目全部分给条目数不足的一组
+                for (int entry = 0; entry < total; entry++) {
+                    if (!assigned[entry]) {
+                        next = entry;
+                        break;
+                    }
+                }
+            }
+            addEntry(groups[group], entries, next * stride, children == null ? null : children[next]);
+            extend(covers[group], entries, next * stride);
+            assigned[next] = true;
+            remaining--;
+        }
+        return sibling;
+    }
+
+    /**
+     * 扩大量小的组优先，其次体积小的组，再次条目少的组
+     */
+    private int preferredGroup(Volume one, Volume two, int[][] covers, int countOne, int countTwo) {
+        int order = one.compareTo(two);
+        if (order == 0) {
+            order = Volume.of(covers[0], 0, null, 0, dimension).compareTo(Volume.of(covers[1], 0, null, 0, dimension));
+        }
+        if (order == 0) {
+            order = Integer.compare(countOne, countTwo);
+        }
+        return order <= 0 ? 0 : 1;
+    }
+
+    private Volume enlargement(int[] cover, int[] entries, int base) {
+        return Volume.of(cover, 0, entries, base, dimension).subtract(Volume.of(cover, 0, null, 0, dimension));
+    }
+
+    private void extend(int[] cover, int[] entries, int base) {
+        for (int index = 0; index < dimension; index++) {
+            cover[index] = Math.min(cover[index], entries[base + index]);
+            cover[dimension + index] = Math.max(cover[dimension + index], entries[base + dimension + index]);
+        }
+    }
+
+    private Node findLeaf(Node node, int[] box) {
+        for (int index = 0; index < node.count; index++) {
+            int base = index * stride;
+            if (node.isLeaf()) {
+                if (equalsAt(node.bounds, base, box)) {
+                    return node;
+                }
+            } else if (enclosesAt(node.bounds, base, box)) {
+                Node leaf = findLeaf(node.children[index], box);
+                if (leaf != null) {
+                    return leaf;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 删除后从node向上：条目数低于最小填充的节点从父节点中移除，其子树中的条目稍后重新插入到原来的层；
+     * 其余节点收紧在父节点中的外包矩形。根节点只剩一个子节点时降低树高。
+     */
+    private void condense(Node node) {
+        long minCount = Math.round(nodeCapacity * fillFactor);
+        List<Node> eliminated = new ArrayList<>();
+        List<Integer> levels = new ArrayList<>();
+        int level = 0;
+        while (node != root) {
+            Node parent = node.parent;
+            int index = indexOf(parent, node);
+            if (node.count < minCount) {
+                removeEntry(parent, index);
+                node.parent = null;
+                eliminated.add(node);
+                levels.add(level);
+            } else {
+                cover(node, parent.bounds, index * stride);
+            }
+            node = parent;
+            level++;
+        }
+        while (!root.isLeaf() && root.count == 1) {
+            root = root.children[0];
+            root.parent = null;
+        }
+        if (!root.isLeaf() && root.count == 0) {
+            root = new Node(true, nodeCapacity, stride);
+        }
+
+        // 被移除节点中的条目插入到原来的层，子树不需要拆开
+        for (int seq = eliminated.size() - 1; seq >= 0; seq--) {
+            Node removed = eliminated.get(seq);
+            int removedLevel = levels.get(seq);
+            for (int index = 0; index < removed.count; index++) {
+                int[] box = Arrays.copyOfRange(removed.bounds, index * stride, (index + 1) * stride);
+                if (removed.isLeaf()) {
+                    insertBox(box, 0);
+                } else if (removedLevel <= height() - 1) {
+                    insertBox(box, removed.children[index], removedLevel);
+                } else {
+                    // 树高降低后原来的层已不存在，退回重新插入子树中的叶子条目
+                    reinsertLeaves(removed.children[index]);
+                }
+            }
+        }
+    }
+
+    private void reinsertLeaves(Node node) {
+        for (int index = 0; index < node.count; index++) {
+            if (node.isLeaf()) {
+                insertBox(Arrays.copyOfRange(node.bounds, index * stride, (index + 1) * stride), 0);
+            } else {
+                reinsertLeaves(node.children[index]);
+            }
+        }
+    }
+
+    private void search(Node node, int[] window, List<int[]> result) {
+        for (int index = 0; index < node.count; index++) {
+            int base = index * stride;
+            if (!intersectsAt(node.bounds, base, window)) {
+                continue;
+            }
+            if (node.isLeaf()) {
+                result.add(Arrays.copyOfRange(node.bounds, base, base + stride));
+            } else {
+                search(node.children[index], window, result);
+            }
+        }
+    }
+
+    private int count(Node node, int[] window) {
+        int count = 0;
+        for (int index = 0; index < node.count; index++) {
+            int base = index * stride;
+            if (intersectsAt(node.bounds, base, window)) {
+                count += node.isLeaf() ? 1 : count(node.children[index], window);
+            }
+        }
+        return count;
+    }
+
+    private boolean intersectsAt(int[] bounds, int base, int[] window) {
+        for (int index = 0; index < dimension; index++) {
+            if (bounds[base + index] > window[dimension + index] || bounds[base + dimension + index] < window[index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean enclosesAt(int[] bounds, int base, int[] box) {
+        for (int index = 0; index < dimension; index++) {
+            if (bounds[base + index] > box[index] || bounds[base + dimension + index] < box[dimension + index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean equalsAt(int[] bounds, int base, int[] box) {
+        for (int index = 0; index < stride; index++) {
+            if (bounds[base + index] != box[index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 精确的体积。每维边长不超过2^32 - 1，体积在long范围内时只用long计算，超出时改用BigInteger。
+     */
+    private static final class Volume implements Comparable<Volume> {
+        private final long value;
+        // 超出long范围时的精确值，否则为null
+        private final BigInteger big;
+
+        private Volume(long value, BigInteger big) {
+            this.value = value;
+            this.big = big;
+        }
+
+        /**
+         * 盒子a（other不为null时为a与other中盒子的并）的体积
+         */
+        private static Volume of(int[] a, int aBase, int[] other, int otherBase, int dimension) {
+            long volume = 1;
+            for (int index = 0; index < dimension; index++) {
+                long low = a[aBase + index];
+                long high = a[aBase + dimension + index];
+                if (other != null) {
+                    low = Math.min(low, other[otherBase + index]);
+                    high = Math.max(high, other[otherBase + dimension + index]);
+                }
+                long side = high - low;
+                if (side != 0 && volume > Long.MAX_VALUE / side) {
+                    return new Volume(0, bigVolume(a, aBase, other, otherBase, dimension));
+                }
+                volume *= side;
+            }
+            return new Volume(volume, null);
+        }
+
+        private static BigInteger bigVolume(int[] a, int aBase, int[] other, int otherBase, int dimension) {
+            BigInteger volume = BigInteger.ONE;
+            for (int index = 0; index < dimension; index++) {
+                long low = a[aBase + index];
+                long high = a[aBase + dimension + index];
+                if (other != null) {
+                    low = Math.min(low, other[otherBase + index]);
+                    high = Math.max(high, other[otherBase + dimension + index]);
+                }
+                volume = volume.multiply(BigInteger.valueOf(high - low));
+            }
+            return volume;
+        }
+
+        private Volume subtract(Volume other) {
+            if (this.big == null && other.big == null) {
+                // 只有两数符号相反且结果与被减数符号不同时才溢出
+                long result = this.value - other.value;
+                if (((this.value ^ other.value) & (this.value ^ result)) >= 0) {
+                    return new Volume(result, null);
+                }
+            }
+            return normalize(this.toBigInteger().subtract(other.toBigInteger()));
+        }
+
+        private Volume abs() {
+            if (big == null && value != Long.MIN_VALUE) {
+                return new Volume(Math.abs(value), null);
+            }
+            return normalize(toBigInteger().abs());
+        }
+
+        private BigInteger toBigInteger() {
+            return big == null ? BigInteger.valueOf(value) : big;
+        }
+
+        private static Volume normalize(BigInteger value) {
+            return value.bitLength() < Long.SIZE ? new Volume(value.longValue(), null) : new Volume(0, value);
+        }
+
+        @Override
+        public int compareTo(Volume other) {
+            if (this.big == null && other.big == null) {
+                return Long.compare(this.value, other.value);
+            }
+            return this.toBigInteger().compareTo(other.toBigInteger());
+        }
+    }
+}
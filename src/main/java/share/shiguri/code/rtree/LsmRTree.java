@@ -0,0 +1,262 @@
+package share.shiguri.code.rtree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * @ClassName LsmRTree
+ * @Description 日志结构的写优化空间索引。<br>
+ * 写入先进入一棵小的可变RTree（memtable），memtable的条目数达到上限后被打包成一个只读的FrozenRTree（run）。
+ * run的数目超过上限时，由后台线程把所有run合并成一个。删除memtable中的条目直接删除，删除run中的条目则记录墓碑，
+ * 查询时跳过，合并run时真正移除。查询同时访问memtable和所有run。
+ */
+public class LsmRTree {
+    private final int nodeCapacity;
+    private final int rTreeType;
+    private final double fillFactor;
+    private final int dimension;
+    // memtable的条目数上限
+    private final int memtableLimit;
+    // run的数目超过该值时触发后台合并
+    private final int maxRuns;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ExecutorService compactor;
+    private RTree memtable;
+    private int memtableSize;
+    // 所有run，新的在前
+    private List<FrozenRTree> runs = Collections.emptyList();
+    // run中被删除的条目及其被删除的次数
+    private final Map<MaximumBoundingBox, Integer> tombstones = new HashMap<>();
+    private boolean compacting = false;
+
+    public LsmRTree(int nodeCapacity, int rTreeType, double fillFactor, int dimension, int memtableLimit, int maxRuns) {
+        if (memtableLimit < 1 || maxRuns < 1) {
+            throw new IllegalArgumentException("memtableLimit and maxRuns must more than 0");
+        }
+        this.nodeCapacity = nodeCapacity;
+        this.rTreeType = rTreeType;
+        this.fillFactor = fillFactor;
+        this.dimension = dimension;
+        this.memtableLimit = memtableLimit;
+        this.maxRuns = maxRuns;
+        this.memtable = new RTree(nodeCapacity, rTreeType, fillFactor, dimension);
+        this.compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lsm-rtree-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public boolean insert(MaximumBoundingBox mbb) {
+        return insert(mbb, 0d);
+    }
+
+    public boolean insert(MaximumBoundingBox mbb, double value) {
+        lock.writeLock().lock();
+        try {
+            memtable.insert(mbb, value);
+            memtableSize += 1;
+            if (memtableSize >= memtableLimit) {
+                flush();
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 删除一个条目：在memtable中则直接删除，否则在run中存在时记录一个墓碑
+     * @param mbb MaximumBoundingBox
+     * @return boolean 条目不存在时返回false
+     */
+    public boolean delete(MaximumBoundingBox mbb) {
+        lock.writeLock().lock();
+        try {
+            if (memtable.delete(mbb) != -1) {
+                memtableSize -= 1;
+                return true;
+            }
+
+            int live = -tombstones.getOrDefault(mbb, 0);
+            for (FrozenRTree run : runs) {
+                for (MaximumBoundingBox box : run.search(mbb)) {
+                    if (box.equals(mbb)) {
+                        live += 1;
+                    }
+                }
+            }
+            if (live > 0) {
+                tombstones.merge(mbb, 1, Integer::sum);
+                return true;
+            }
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 范围查询，合并memtable与所有run的结果，跳过被墓碑标记的条目
+     * @param window 查询窗口
+     * @return List<MaximumBoundingBox>
+     */
+    public List<MaximumBoundingBox> search(MaximumBoundingBox window) {
+        lock.readLock().lock();
+        try {
+            List<MaximumBoundingBox> result = memtable.search(window);
+            Map<MaximumBoundingBox, Integer> skip = new HashMap<>(tombstones);
+            for (FrozenRTree run : runs) {
+                for (MaximumBoundingBox box : run.search(window)) {
+                    Integer remaining = skip.get(box);
+                    if (remaining != null && remaining > 0) {
+                        skip.put(box, remaining - 1);
+                    } else {
+                        result.add(box);
+                    }
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 返回与window相交的条目数目。墓碑只记录run中确实存在的条目，所以直接减去与window相交的墓碑数。
+     * @param window 查询窗口
+     * @return long
+     */
+    public long count(MaximumBoundingBox window) {
+        lock.readLock().lock();
+        try {
+            long count = memtable.count(window);
+            for (FrozenRTree run : runs) {
+                count += run.count(window);
+            }
+            for (Map.Entry<MaximumBoundingBox, Integer> tombstone : tombstones.entrySet()) {
+                if (window.isIntersection(tombstone.getKey())) {
+                    count -= tombstone.getValue();
+                }
+            }
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 把memtable打包成一个新的run。run过多时提交后台合并。
+     */
+    public void flush() {
+        lock.writeLock().lock();
+        try {
+            if (memtableSize == 0) {
+                return;
+            }
+            List<FrozenRTree> newRuns = new ArrayList<>(runs.size() + 1);
+            newRuns.add(memtable.freeze());
+            newRuns.addAll(runs);
+            runs = Collections.unmodifiableList(newRuns);
+            memtable = new RTree(nodeCapacity, rTreeType, fillFactor, dimension);
+            memtableSize = 0;
+
+            if (runs.size() > maxRuns && !compacting) {
+                compacting = true;
+                compactor.submit(this::compact);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 把当前所有run合并成一个，并移除被墓碑标记的条目。合并过程不持有读写锁，查询与写入可以继续进行；
+     * 多次合并之间互斥执行。
+     */
+    public synchronized void compact() {
+        List<FrozenRTree> snapshot;
+        Map<MaximumBoundingBox, Integer> pending;
+        lock.writeLock().lock();
+        try {
+            compacting = true;
+            snapshot = runs;
+            pending = new HashMap<>(tombstones);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        try {
+            List<MaximumBoundingBox> boxes = new ArrayList<>();
+            List<Double> values = new ArrayList<>();
+            Map<MaximumBoundingBox, Integer> consumed = new HashMap<>();
+            for (FrozenRTree run : snapshot) {
+                for (int index = 0; index < run.size(); index++) {
+                    MaximumBoundingBox box = run.getEntry(index);
+                    Integer remaining = pending.get(box);
+                    if (remaining != null && remaining > 0) {
+                        pending.put(box, remaining - 1);
+                        consumed.merge(box, 1, Integer::sum);
+                    } else {
+                        boxes.add(box);
+                        values.add(run.getValue(index));
+                    }
+                }
+            }
+            double[] valueArray = new double[values.size()];
+            for (int index = 0; index < valueArray.length; index++) {
+                valueArray[index] = values.get(index);
+            }
+            FrozenRTree merged = FrozenRTree.create(boxes.toArray(new MaximumBoundingBox[0]), valueArray,
+                    nodeCapacity, dimension);
+
+            lock.writeLock().lock();
+            try {
+                // 合并期间新flush的run在列表前部，保持在合并结果之前
+                List<FrozenRTree> newRuns = new ArrayList<>(runs.subList(0, runs.size() - snapshot.size()));
+                newRuns.add(merged);
+                runs = Collections.unmodifiableList(newRuns);
+                for (Map.Entry<MaximumBoundingBox, Integer> entry : consumed.entrySet()) {
+                    int remaining = tombstones.getOrDefault(entry.getKey(), 0) - entry.getValue();
+                    if (remaining > 0) {
+                        tombstones.put(entry.getKey(), remaining);
+                    } else {
+                        tombstones.remove(entry.getKey());
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            lock.writeLock().lock();
+            compacting = false;
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return int 当前run的数目
+     */
+    public int getRunCount() {
+        lock.readLock().lock();
+        try {
+            return runs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 停止后台合并线程
+     */
+    public void close() {
+        compactor.shutdown();
+    }
+}
@@ -17,6 +17,27 @@ public class MaximumBoundingBox {
         }
     }
 
+    /**
+     * 由一个点创建退化的MBB，leftBottom与rightTop共用同一个Point，坐标只存储一份。
+     * @param point Point
+     * @return MaximumBoundingBox
+     */
+    public static MaximumBoundingBox create(Point point) {
+        if (point == null) {
+            throw new IllegalArgumentException("point can't be null");
+        }
+        Point coordinate = point.clone();
+        return new MaximumBoundingBox(coordinate, coordinate);
+    }
+
+    /**
+     * 是否是由create(Point)创建的点MBB
+     * @return boolean
+     */
+    public boolean isPoint() {
+        return leftBottom == rightTop;
+    }
+
     public Point getLeftBottomPoint() {
         return leftBottom.clone();
     }
@@ -25,6 +46,20 @@ public class MaximumBoundingBox {
         return rightTop.clone();
     }
 
+    /**
+     * 第index维的下界，不复制Point，供树内部的热点路径使用
+     */
+    double getLow(int index) {
+        return leftBottom.getValueOfIndex(index);
+    }
+
+    /**
+     * 第index维的上界，不复制Point，供树内部的热点路径使用
+     */
+    double getHigh(int index) {
+        return rightTop.getValueOfIndex(index);
+    }
+
     /**
      * 返回一个MBB的维度
      * @return int 维度
@@ -87,6 +122,13 @@ public class MaximumBoundingBox {
             throw new IllegalArgumentException("two maximumBoundingBoxes' dimension don't equal");
         }
 
+        if (this.isPoint()) {
+            return other.containsPoint(this.leftBottom);
+        }
+        if (other.isPoint()) {
+            return this.containsPoint(other.leftBottom);
+        }
+
         for (int index = 0; index < this.dimension(); index++) {
             if (other.leftBottom.getValueOfIndex(index) > this.rightTop.getValueOfIndex(index) ||
             other.rightTop.getValueOfIndex(index) < this.leftBottom.getValueOfIndex(index)) {
@@ -103,7 +145,8 @@ public class MaximumBoundingBox {
      * @return double
      */
     public double getIntersectionArea(MaximumBoundingBox other) {
-        if (!isIntersection(other)) {
+        // 点与任何MBB的相交区域面积都为0
+        if (this.isPoint() || other.isPoint() || !isIntersection(other)) {
             return 0.0;
         }
 
@@ -135,6 +178,109 @@ public class MaximumBoundingBox {
         return area;
     }
 
+    /**
+     * 点与MBB的相交判断：点是否落在当前MBB内（包括边界）
+     * @param point 同维度的点
+     * @return boolean
+     */
+    public boolean containsPoint(Point point) {
+        if (point == null) {
+            throw new IllegalArgumentException("point can't be null");
+        }
+        if (point.dimension() != this.dimension()) {
+            throw new IllegalArgumentException("point's dimension don't equal");
+        }
+
+        for (int index = 0; index < this.dimension(); index++) {
+            double value = point.getValueOfIndex(index);
+            if (value < this.leftBottom.getValueOfIndex(index) || value > this.rightTop.getValueOfIndex(index)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 返回点到当前MBB的最小欧氏距离（MINDIST），点在MBB内时为0。当前MBB是点时即为两点间距离。
+     * @param point 同维度的点
+     * @return double
+     */
+    public double minDistance(Point point) {
+        return Math.sqrt(minDistanceSquare(point));
+    }
+
+    /**
+     * 返回点到当前MBB的最小欧氏距离的平方，用于比较距离时省去开方。
+     * @param point 同维度的点
+     * @return double
+     */
+    public double minDistanceSquare(Point point) {
+        if (point == null) {
+            throw new IllegalArgumentException("point can't be null");
+        }
+        if (point.dimension() != this.dimension()) {
+            throw new IllegalArgumentException("point's dimension don't equal");
+        }
+
+        double distance = 0.0;
+        if (this.isPoint()) {
+            for (int index = 0; index < this.dimension(); index++) {
+                double diff = point.getValueOfIndex(index) - this.leftBottom.getValueOfIndex(index);
+                distance += diff * diff;
+            }
+            return distance;
+        }
+
+        for (int index = 0; index < this.dimension(); index++) {
+            double value = point.getValueOfIndex(index);
+            double left = this.leftBottom.getValueOfIndex(index);
+            double right = this.rightTop.getValueOfIndex(index);
+            double diff = 0.0;
+            if (value < left) {
+                diff = left - value;
+            } else if (value > right) {
+                diff = value - right;
+            }
+            distance += diff * diff;
+        }
+        return distance;
+    }
+
+    /**
+     * 返回两个MBB之间的最小欧氏距离（MINDIST），相交时为0。
+     * @param other 同维度的MBB
+     * @return double
+     */
+    public double minDistance(MaximumBoundingBox other) {
+        return Math.sqrt(minDistanceSquare(other));
+    }
+
+    /**
+     * 返回两个MBB之间的最小欧氏距离的平方：每一维上两个区间的间隔的平方和。
+     * @param other 同维度的MBB
+     * @return double
+     */
+    public double minDistanceSquare(MaximumBoundingBox other) {
+        if (other == null) {
+            throw new IllegalArgumentException("maximumBoundingBox can't be null");
+        }
+        if (other.dimension() != this.dimension()) {
+            throw new IllegalArgumentException("maximumBoundingBoxes' dimension must equal");
+        }
+
+        double distance = 0.0;
+        for (int index = 0; index < this.dimension(); index++) {
+            double diff = 0.0;
+            if (other.rightTop.getValueOfIndex(index) < this.leftBottom.getValueOfIndex(index)) {
+                diff = this.leftBottom.getValueOfIndex(index) - other.rightTop.getValueOfIndex(index);
+            } else if (other.leftBottom.getValueOfIndex(index) > this.rightTop.getValueOfIndex(index)) {
+                diff = other.leftBottom.getValueOfIndex(index) - this.rightTop.getValueOfIndex(index);
+            }
+            distance += diff * diff;
+        }
+        return distance;
+    }
+
     /**
      * 判断 other是否被this包含。
      * @param other MaximumBoundingBox
@@ -183,6 +329,9 @@ public class MaximumBoundingBox {
 
     @Override
     protected Object clone(){
+        if (isPoint()) {
+            return MaximumBoundingBox.create(this.leftBottom);
+        }
         Point leftBottomClone = this.leftBottom.clone();
         Point rightBottomClone = this.rightTop.clone();
         return MaximumBoundingBox.create(leftBottomClone, rightBottomClone);
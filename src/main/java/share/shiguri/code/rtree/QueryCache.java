@@ -0,0 +1,137 @@
+package share.shiguri.code.rtree;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @ClassName QueryCache
+ * @Description RTree范围查询的结果缓存，以查询窗口为键，按条目数与估算字节数限制大小，LRU淘汰。<br>
+ * 缓存的窗口本身也存放在一棵小RTree中，insert、delete、update时只失效与修改的MBB相交的窗口，不会返回过期的结果。
+ * 通过RTree.setQueryCache()启用。
+ */
+public class QueryCache {
+    // 估算的单个结果条目占用的字节数：MBB对象、两个Point对象及其坐标数组
+    private static final int BOX_OVERHEAD_BYTES = 96;
+    private static final int COORDINATE_BYTES = 16;
+
+    private final int dimension;
+    private final int maxEntries;
+    private final long maxBytes;
+    // accessOrder为true，迭代顺序即最近最少使用的顺序
+    private final LinkedHashMap<MaximumBoundingBox, List<MaximumBoundingBox>> entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private final RTree windowIndex;
+    private long bytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param dimension 维度
+     * @param maxEntries 缓存的窗口数目上限
+     * @param maxBytes 缓存结果的估算字节数上限，小于等于0时不限制
+     */
+    public QueryCache(int dimension, int maxEntries, long maxBytes) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must more than 0");
+        }
+        this.dimension = dimension;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.windowIndex = new RTree(Constants.MAX_NUMBER_OF_ENTRIES_IN_NODE, Constants.RTREE_QUADRATIC,
+                (double) Constants.MIN_NUMBER_OF_ENTRIES_IN_NODE / Constants.MAX_NUMBER_OF_ENTRIES_IN_NODE, dimension);
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * 返回window的缓存结果的副本，未命中时返回null
+     * @param window 查询窗口
+     * @return List<MaximumBoundingBox>
+     */
+    public synchronized List<MaximumBoundingBox> get(MaximumBoundingBox window) {
+        List<MaximumBoundingBox> result = entries.get(window);
+        if (result == null) {
+            misses += 1;
+            return null;
+        }
+        hits += 1;
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * 缓存window的查询结果，超出限制时淘汰最近最少使用的窗口
+     * @param window 查询窗口
+     * @param result 查询结果
+     */
+    public synchronized void put(MaximumBoundingBox window, List<MaximumBoundingBox> result) {
+        long size = estimateBytes(result);
+        if (maxBytes > 0 && size > maxBytes) {
+            return;
+        }
+
+        remove(window);
+        entries.put(window, new ArrayList<>(result));
+        windowIndex.insert(window);
+        bytes += size;
+
+        Iterator<Map.Entry<MaximumBoundingBox, List<MaximumBoundingBox>>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext() && (entries.size() > maxEntries || (maxBytes > 0 && bytes > maxBytes))) {
+            Map.Entry<MaximumBoundingBox, List<MaximumBoundingBox>> eldest = iterator.next();
+            iterator.remove();
+            windowIndex.delete(eldest.getKey());
+            bytes -= estimateBytes(eldest.getValue());
+        }
+    }
+
+    /**
+     * 失效所有与box相交的窗口
+     * @param box 被插入或删除的MBB
+     */
+    public synchronized void invalidate(MaximumBoundingBox box) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        for (MaximumBoundingBox window : windowIndex.search(box)) {
+            remove(window);
+        }
+    }
+
+    public synchronized void clear() {
+        for (MaximumBoundingBox window : new ArrayList<>(entries.keySet())) {
+            remove(window);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private void remove(MaximumBoundingBox window) {
+        List<MaximumBoundingBox> removed = entries.remove(window);
+        if (removed != null) {
+            windowIndex.delete(window);
+            bytes -= estimateBytes(removed);
+        }
+    }
+
+    private long estimateBytes(List<MaximumBoundingBox> result) {
+        return (long) result.size() * (BOX_OVERHEAD_BYTES + COORDINATE_BYTES * dimension);
+    }
+}
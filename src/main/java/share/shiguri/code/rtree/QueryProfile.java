@@ -0,0 +1,155 @@
+package share.shiguri.code.rtree;
+
+import java.util.Arrays;
+
+/**
+ * @ClassName QueryProfile
+ * @Description 单次查询的剖析结果，把QueryProfile传给RTree的search、aggregate、count、nearest即以剖析模式执行查询。<br>
+ * 每层统计：<br>
+ *     visited：访问的节点数<br>
+ *     pruned：因MBB不满足条件而跳过的节点数（k近邻查询为查询结束时仍留在队列中的节点数）<br>
+ *     summarized：被窗口完全包含、直接使用聚合摘要而不再访问的节点数<br>
+ *     tested：被访问节点中与查询比较过的条目数<br>
+ *     hits：满足条件的条目数，叶子层为结果条目数，中间层为向下进入或直接使用摘要的子节点数<br>
+ *     empty：访问了但整棵子树没有产生结果的节点数，中间层该值偏大说明兄弟节点之间重叠严重<br>
+ *     nanos：在该层节点上花费的时间，不含子节点的时间<br>
+ * 不传QueryProfile（为null）的查询走原来的路径，没有任何额外开销。同一个QueryProfile可以复用，每次查询开始时清零。
+ */
+public class QueryProfile {
+    private long[] visited = new long[0];
+    private long[] pruned = new long[0];
+    private long[] summarized = new long[0];
+    private long[] tested = new long[0];
+    private long[] hits = new long[0];
+    private long[] empty = new long[0];
+    private long[] nanos = new long[0];
+    private long results;
+    private long elapsedNanos;
+
+    public static QueryProfile create() {
+        return new QueryProfile();
+    }
+
+    /**
+     * 开始一次查询，按树高清零各层的统计
+     * @param height 树高，即根节点的层数 + 1
+     */
+    void start(int height) {
+        if (visited.length != height) {
+            visited = new long[height];
+            pruned = new long[height];
+            summarized = new long[height];
+            tested = new long[height];
+            hits = new long[height];
+            empty = new long[height];
+            nanos = new long[height];
+        } else {
+            for (long[] counters : new long[][]{visited, pruned, summarized, tested, hits, empty, nanos}) {
+                Arrays.fill(counters, 0);
+            }
+        }
+        results = 0;
+        elapsedNanos = 0;
+    }
+
+    /**
+     * 记录一次节点访问。中间节点未满足条件的条目计为下一层被剪枝的节点。
+     * @param level 节点的层数
+     * @param testedEntries 比较过的条目数
+     * @param hitEntries 满足条件的条目数
+     * @param produced 子树产生的结果数
+     * @param selfNanos 不含子节点的耗时
+     */
+    void visit(int level, int testedEntries, int hitEntries, long produced, long selfNanos) {
+        visited[level] += 1;
+        tested[level] += testedEntries;
+        hits[level] += hitEntries;
+        nanos[level] += selfNanos;
+        if (produced == 0) {
+            empty[level] += 1;
+        }
+        if (level > 0) {
+            pruned[level - 1] += testedEntries - hitEntries;
+        }
+    }
+
+    void hit(int level) {
+        hits[level] += 1;
+    }
+
+    void prune(int level) {
+        pruned[level] += 1;
+    }
+
+    void summarize(int level) {
+        summarized[level] += 1;
+    }
+
+    void finish(long results, long elapsedNanos) {
+        this.results = results;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return int 树高，即统计的层数
+     */
+    public int getHeight() {
+        return visited.length;
+    }
+
+    public long getVisited(int level) {
+        return visited[level];
+    }
+
+    public long getPruned(int level) {
+        return pruned[level];
+    }
+
+    public long getSummarized(int level) {
+        return summarized[level];
+    }
+
+    public long getTested(int level) {
+        return tested[level];
+    }
+
+    public long getHits(int level) {
+        return hits[level];
+    }
+
+    public long getEmpty(int level) {
+        return empty[level];
+    }
+
+    public long getNanos(int level) {
+        return nanos[level];
+    }
+
+    /**
+     * @return long 查询返回的结果数（聚合查询为条目数）
+     */
+    public long getResults() {
+        return results;
+    }
+
+    /**
+     * @return long 整个查询的耗时
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append("QueryProfile: {results:").append(results)
+                .append(",elapsed(us):").append(elapsedNanos / 1000).append("}\n");
+        stringBuilder.append(String.format("%6s %10s %10s %10s %10s %10s %10s %10s%n",
+                "level", "visited", "pruned", "summarized", "tested", "hits", "empty", "time(us)"));
+        for (int level = visited.length - 1; level >= 0; level--) {
+            stringBuilder.append(String.format("%6d %10d %10d %10d %10d %10d %10d %10d%n", level, visited[level],
+                    pruned[level], summarized[level], tested[level], hits[level], empty[level], nanos[level] / 1000));
+        }
+        return stringBuilder.toString();
+    }
+}
@@ -1,6 +1,7 @@
 package share.shiguri.code.rtree;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -99,6 +100,128 @@ public class RTIndexNode extends RTNode{
         return seq;
     }
 
+    /**
+     * Hilbert R树选择子节点：选LHV大于等于hilbertValue的子节点中LHV最小的一个，若没有，则选LHV最大的子节点。
+     * @param hilbertValue 新增的MBB的Hilbert值
+     * @return int 子节点的索引
+     */
+    private int findLeastLargerHilbert(long hilbertValue) {
+        int seq = -1;
+        int largest = 0;
+        for (int index = 0; index < this.usedCount; index++) {
+            long lhv = this.children.get(index).largestHilbertValue;
+            if (lhv >= hilbertValue && (seq == -1 || lhv < this.children.get(seq).largestHilbertValue)) {
+                seq = index;
+            }
+            if (lhv > this.children.get(largest).largestHilbertValue) {
+                largest = index;
+            }
+        }
+        return seq == -1 ? largest : seq;
+    }
+
+    /**
+     * 返回child的合作兄弟节点：按LHV排序时与child相邻的子节点，优先选择还有空间的一个。只有一个子节点时返回null。
+     * @param child 溢出的子节点
+     * @return RTNode
+     */
+    protected RTNode cooperatingSibling(RTNode child) {
+        RTNode lower = null;
+        RTNode upper = null;
+        for (int index = 0; index < this.usedCount; index++) {
+            RTNode sibling = this.children.get(index);
+            if (sibling == child) {
+                continue;
+            }
+            if (sibling.largestHilbertValue <= child.largestHilbertValue) {
+                if (lower == null || sibling.largestHilbertValue > lower.largestHilbertValue) {
+                    lower = sibling;
+                }
+            } else if (upper == null || sibling.largestHilbertValue < upper.largestHilbertValue) {
+                upper = sibling;
+            }
+        }
+
+        if (upper != null && upper.usedCount < upper.getCapacity()) {
+            return upper;
+        }
+        if (lower != null && lower.usedCount < lower.getCapacity()) {
+            return lower;
+        }
+        return upper != null ? upper : lower;
+    }
+
+    /**
+     * 子节点与合作兄弟节点重新分配条目后调用：更新被改动的子节点的MBB，若新建了节点则将其插入当前节点，然后向上调整。
+     * @param touched 重新分配了条目的子节点
+     * @param created 2分3时新建的节点，没有则为null
+     */
+    protected void hilbertRedistributed(List<RTNode> touched, RTNode created) {
+        for (RTNode node : touched) {
+            this.data[this.children.indexOf(node)] = node.getMaximumBoundingBox();
+        }
+
+        if (created != null) {
+            this.insert(created);
+        } else {
+            this.refreshSummary();
+            if (!isRoot()) {
+                ((RTIndexNode) this.parent).adjustRtree(this, null);
+            }
+        }
+    }
+
+    /**
+     * Hilbert R树中间节点溢出：把当前节点、合作兄弟节点的子节点与新节点按LHV排序后平均分配回这两个节点；
+     * 若两个节点都已满，则新建一个中间节点，三者平均分配（2分3）。
+     * @param rtNode 待插入的新节点
+     */
+    private void hilbertOverflow(RTNode rtNode) {
+        RTIndexNode parentNode = (RTIndexNode) this.parent;
+        RTIndexNode sibling = (RTIndexNode) parentNode.cooperatingSibling(this);
+
+        List<RTNode> pool = new ArrayList<>(this.children.subList(0, this.usedCount));
+        if (sibling != null) {
+            pool.addAll(sibling.children.subList(0, sibling.usedCount));
+        }
+        pool.add(rtNode);
+        pool.sort((one, two) -> Long.compare(one.largestHilbertValue, two.largestHilbertValue));
+        int total = pool.size();
+
+        List<RTIndexNode> targets = new ArrayList<>();
+        targets.add(this);
+        if (sibling != null) {
+            targets.add(sibling.largestHilbertValue < this.largestHilbertValue ? 0 : 1, sibling);
+        }
+        List<RTNode> touched = new ArrayList<>(targets);
+        RTIndexNode created = null;
+        if (total > targets.size() * rTree.getNodeCapacity()) {
+            created = new RTIndexNode(rTree, parentNode, this.level);
+            targets.add(created);
+        }
+
+        for (RTIndexNode target : targets) {
+            Arrays.fill(target.data, null);
+            target.children.clear();
+            target.usedCount = 0;
+        }
+        int from = 0;
+        for (int seq = 0; seq < targets.size(); seq++) {
+            RTIndexNode target = targets.get(seq);
+            int to = from + (total - from) / (targets.size() - seq);
+            for (int index = from; index < to; index++) {
+                RTNode child = pool.get(index);
+                target.children.add(child);
+                target.addMaximumBoundingBox(child.getMaximumBoundingBox());
+                child.parent = target;
+            }
+            target.refreshSummary();
+            from = to;
+        }
+
+        parentNode.hilbertRedistributed(touched, created);
+    }
+
     /**
      * 插入新的MBB后，从插入的叶子节点向上调整，直到根节点。
      * @param rtNode1 引起需要调整的节点。
@@ -106,15 +229,27 @@ public class RTIndexNode extends RTNode{
      */
     public void adjustRtree(RTNode rtNode1, RTNode rtNode2){
         // 先更新旧节点及其MBB在父节点中的值
-        this.data[this.insertIndex] = rtNode1.getMaximumBoundingBox();
+        MaximumBoundingBox mbb = rtNode1.getMaximumBoundingBox();
+        boolean unchanged = this.children.get(this.insertIndex) == rtNode1 && mbb.equals(this.data[this.insertIndex]);
+        this.data[this.insertIndex] = mbb;
         this.children.set(this.insertIndex, rtNode1);
 
         if (rtNode2 != null) {
             this.insert(rtNode2);
-        } else if (!isRoot()) {
-            // 没有节点分裂，将调整传递到父节点。
-            RTIndexNode parent = (RTIndexNode) this.getParent();
-            parent.adjustRtree(this, null);
+        } else {
+            long largestHilbertValue = this.largestHilbertValue;
+            long earliestExpiry = this.earliestExpiry;
+            this.refreshSummary();
+            if (unchanged && !rTree.isAggregated() && largestHilbertValue == this.largestHilbertValue
+                    && earliestExpiry == this.earliestExpiry) {
+                // 外包矩形与子树摘要都没有变化，上层节点不需要调整
+                return;
+            }
+            if (!isRoot()) {
+                // 没有节点分裂，将调整传递到父节点。
+                RTIndexNode parent = (RTIndexNode) this.getParent();
+                parent.adjustRtree(this, null);
+            }
         }
 
     }
@@ -126,12 +261,13 @@ public class RTIndexNode extends RTNode{
      */
     protected boolean insert(RTNode rtNode){
         // 当前节点还有剩余空间，不需要分裂直接插入
-        if (this.usedCount < this.rTree.getNodeCapacity()) {
+        if (this.usedCount < getCapacity()) {
             int index = this.usedCount;
             this.data[index] = rtNode.getMaximumBoundingBox();
             this.children.add(rtNode);
             this.usedCount += 1;
             rtNode.parent = this;
+            this.refreshSummary();
             // parent 不是根节点，则从当前节点开始调整。
             RTIndexNode parent = (RTIndexNode) this.parent;
             if (parent != null) {
@@ -139,8 +275,17 @@ public class RTIndexNode extends RTNode{
             }
             return false;
 
+        } else if (this.rTree.getTreeType() == Constants.HILBERT && !isRoot()) {
+            // Hilbert R树：与合作兄弟节点重新分配子节点，必要时2分3
+            this.hilbertOverflow(rtNode);
+            return true;
         } else {
             RTIndexNode[] seeds = this.splitIndex(rtNode);
+            if (seeds == null) {
+                // X树找不到合适的分裂，扩展为超级节点后直接插入
+                this.growCapacity();
+                return this.insert(rtNode);
+            }
             RTIndexNode one = seeds[0];
             RTIndexNode two = seeds[1];
 
@@ -157,6 +302,7 @@ public class RTIndexNode extends RTNode{
 
                 one.parent = newRoot;
                 two.parent = newRoot;
+                newRoot.refreshSummary();
 
                 this.rTree.setRoot(newRoot);
             } else {
@@ -171,7 +317,7 @@ public class RTIndexNode extends RTNode{
     /**
      * 中间节点的分裂
      * @param rtNode
-     * @return RTIndexNode[], length = 2, 分别取出分裂后的第一个和第二个中间节点。
+     * @return RTIndexNode[], length = 2, 分别取出分裂后的第一个和第二个中间节点。X树决定扩展为超级节点时返回null。
      */
     private RTIndexNode[] splitIndex(RTNode rtNode) {
         int[][] group = null;
@@ -181,6 +327,19 @@ public class RTIndexNode extends RTNode{
                 this.children.add(rtNode);
                 rtNode.parent = this;
                 break;
+            case Constants.XTREE:
+                group = xTreeSplit(rtNode.getMaximumBoundingBox(), rtNode.splitHistory);
+                if (group == null) {
+                    return null;
+                }
+                this.children.add(rtNode);
+                rtNode.parent = this;
+                break;
+            case Constants.HILBERT:
+                this.children.add(rtNode);
+                rtNode.parent = this;
+                group = hilbertSplit(rtNode.getMaximumBoundingBox());
+                break;
             case Constants.RTREE_LINEAR:
             case Constants.RTREE_EXPONENTIAL:
             case Constants.RSTAR:
@@ -194,6 +353,13 @@ public class RTIndexNode extends RTNode{
 
         int[] group1 = group[0];
         int[] group2 = group[1];
+        // 超级节点分裂出的分组可能超过普通节点的容量
+        indexOne.ensureCapacity(group1.length);
+        indexTwo.ensureCapacity(group2.length);
+        if (this.rTree.getTreeType() == Constants.XTREE) {
+            indexOne.splitHistory = this.splitHistory | (1L << this.splitAxis);
+            indexTwo.splitHistory = indexOne.splitHistory;
+        }
         // 把子节点按照索引分到新分裂的两个节点中
         for (int seq : group1) {
             indexOne.children.add(this.children.get(seq));
@@ -205,6 +371,8 @@ public class RTIndexNode extends RTNode{
             indexTwo.addMaximumBoundingBox(this.data[seq]);
             this.children.get(seq).parent = indexTwo;
         }
+        indexOne.refreshSummary();
+        indexTwo.refreshSummary();
 
         return new RTIndexNode[]{indexOne, indexTwo};
     }
@@ -222,6 +390,7 @@ public class RTIndexNode extends RTNode{
             case Constants.RTREE_LINEAR:
             case Constants.RTREE_QUADRATIC:
             case Constants.RTREE_EXPONENTIAL:
+            case Constants.XTREE:
                 index = this.findLeastEnlargement(maximumBoundingBox);
                 break;
             case Constants.RSTAR:
@@ -232,6 +401,9 @@ public class RTIndexNode extends RTNode{
                     index = findLeastEnlargement(maximumBoundingBox);
                 }
                 break;
+            case Constants.HILBERT:
+                index = findLeastLargerHilbert(rTree.hilbertValue(maximumBoundingBox));
+                break;
             default:
                 throw new IllegalArgumentException("invalid Rtree type");
         }
@@ -255,4 +427,138 @@ public class RTIndexNode extends RTNode{
         }
         return null;
     }
+
+    @Override
+    protected long entryHistory(int index) {
+        return this.children.get(index).splitHistory;
+    }
+
+    @Override
+    protected long entryHilbert(int index) {
+        return this.children.get(index).largestHilbertValue;
+    }
+
+    @Override
+    protected void refreshSummary() {
+        if (rTree.getTreeType() == Constants.HILBERT) {
+            long largest = Long.MIN_VALUE;
+            for (int index = 0; index < this.usedCount; index++) {
+                largest = Math.max(largest, this.children.get(index).largestHilbertValue);
+            }
+            this.largestHilbertValue = largest;
+        }
+        if (rTree.isExpiring()) {
+            long earliest = RTree.NO_EXPIRY;
+            for (int index = 0; index < this.usedCount; index++) {
+                earliest = Math.min(earliest, this.children.get(index).earliestExpiry);
+            }
+            this.earliestExpiry = earliest;
+        }
+        if (!rTree.isAggregated()) {
+            return;
+        }
+        Aggregate summary = Aggregate.create();
+        for (int index = 0; index < this.usedCount; index++) {
+            summary.merge(this.children.get(index).aggregate);
+        }
+        this.aggregate = summary;
+    }
+
+    @Override
+    protected void search(MaximumBoundingBox window, List<MaximumBoundingBox> result) {
+        for (int index = 0; index < this.usedCount; index++) {
+            if (window.isIntersection(this.data[index])) {
+                this.children.get(index).search(window, result);
+            }
+        }
+    }
+
+    @Override
+    protected long search(MaximumBoundingBox window, List<MaximumBoundingBox> result, QueryProfile profile) {
+        long start = System.nanoTime();
+        long childNanos = 0;
+        int before = result.size();
+        int hits = 0;
+        for (int index = 0; index < this.usedCount; index++) {
+            if (window.isIntersection(this.data[index])) {
+                childNanos += this.children.get(index).search(window, result, profile);
+                hits++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        profile.visit(this.level, this.usedCount, hits, result.size() - before, elapsed - childNanos);
+        return elapsed;
+    }
+
+    @Override
+    protected void searchGeometry(MaximumBoundingBox window, int relation, List<Geometry> accepted,
+                                  List<Geometry> candidates) {
+        for (int index = 0; index < this.usedCount; index++) {
+            if (mayMatch(this.data[index], window, relation)) {
+                this.children.get(index).searchGeometry(window, relation, accepted, candidates);
+            }
+        }
+    }
+
+    @Override
+    protected void withinDistance(MaximumBoundingBox query, double distanceSquare, List<MaximumBoundingBox> result) {
+        for (int index = 0; index < this.usedCount; index++) {
+            if (this.data[index].minDistanceSquare(query) <= distanceSquare) {
+                this.children.get(index).withinDistance(query, distanceSquare, result);
+            }
+        }
+    }
+
+    @Override
+    protected void evictExpired(long now, int maxEntries, List<MaximumBoundingBox> evicted) {
+        for (int index = this.usedCount - 1; index >= 0 && evicted.size() < maxEntries; index--) {
+            RTNode child = this.children.get(index);
+            if (child.earliestExpiry > now) {
+                // 子树中没有过期的条目
+                continue;
+            }
+            child.evictExpired(now, maxEntries, evicted);
+            if (child.usedCount == 0) {
+                this.deleteMaximumBoundingBox(index);
+                this.children.remove(index);
+                child.parent = null;
+            } else {
+                this.data[index] = child.getMaximumBoundingBox();
+            }
+        }
+        this.refreshSummary();
+    }
+
+    @Override
+    protected void aggregate(MaximumBoundingBox window, Aggregate result) {
+        for (int index = 0; index < this.usedCount; index++) {
+            if (rTree.isAggregated() && window.enclosure(this.data[index])) {
+                // 子树完全落在窗口内，直接合并子树摘要
+                result.merge(this.children.get(index).aggregate);
+            } else if (window.isIntersection(this.data[index])) {
+                this.children.get(index).aggregate(window, result);
+            }
+        }
+    }
+
+    @Override
+    protected long aggregate(MaximumBoundingBox window, Aggregate result, QueryProfile profile) {
+        long start = System.nanoTime();
+        long childNanos = 0;
+        long before = result.getCount();
+        int hits = 0;
+        for (int index = 0; index < this.usedCount; index++) {
+            if (rTree.isAggregated() && window.enclosure(this.data[index])) {
+                result.merge(this.children.get(index).aggregate);
+                profile.summarize(this.level - 1);
+                hits++;
+            } else if (window.isIntersection(this.data[index])) {
+                childNanos += this.children.get(index).aggregate(window, result, profile);
+                hits++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        profile.visit(this.level, this.usedCount, hits, result.getCount() - before, elapsed - childNanos);
+        return elapsed;
+    }
 }
@@ -9,8 +9,21 @@ import java.util.List;
  * @Description RTree 叶子节点
  */
 public class RTLeafNode extends RTNode{
+    //与data一一对应的条目数值负载，用于聚合查询
+    protected double[] values;
+    //与data一一对应的条目中心点的Hilbert值，仅Hilbert R树使用
+    protected long[] hilbertValues;
+    //与data一一对应的条目精确几何形状，叶子节点中第一次存入几何形状时才创建
+    protected Geometry[] geometries;
+    //与data一一对应的条目过期时间，叶子节点中第一次存入会过期的条目时才创建
+    protected long[] expiries;
+
     public RTLeafNode(RTree rTree, RTNode parent) {
         super(rTree, 0, parent);
+        this.values = new double[this.data.length];
+        if (rTree.getTreeType() == Constants.HILBERT) {
+            this.hilbertValues = new long[this.data.length];
+        }
     }
 
     public static RTLeafNode create(RTree rTree, RTNode parent) {
@@ -26,18 +39,56 @@ public class RTLeafNode extends RTNode{
      * @return boolean
      */
     public boolean insert(MaximumBoundingBox insertMbb) {
-        if (this.usedCount < rTree.getNodeCapacity()) {
+        return insert(insertMbb, 0d);
+    }
+
+    /**
+     * 向叶子节点中插入带数值负载的Mbb
+     * @param insertMbb 待插入的MaximumBoundingBox
+     * @param value 条目的数值负载
+     * @return boolean
+     */
+    public boolean insert(MaximumBoundingBox insertMbb, double value) {
+        return insert(insertMbb, value, null);
+    }
+
+    /**
+     * 向叶子节点中插入带数值负载与精确几何形状的Mbb
+     * @param insertMbb 待插入的MaximumBoundingBox
+     * @param value 条目的数值负载
+     * @param geometry 条目的精确几何形状，没有时为null
+     * @return boolean
+     */
+    public boolean insert(MaximumBoundingBox insertMbb, double value, Geometry geometry) {
+        return insert(insertMbb, value, geometry, RTree.NO_EXPIRY);
+    }
+
+    /**
+     * 向叶子节点中插入一个条目及其全部负载
+     * @param insertMbb 待插入的MaximumBoundingBox
+     * @param value 条目的数值负载
+     * @param geometry 条目的精确几何形状，没有时为null
+     * @param expiry 条目的过期时间，不过期时为RTree.NO_EXPIRY
+     * @return boolean
+     */
+    protected boolean insert(MaximumBoundingBox insertMbb, double value, Geometry geometry, long expiry) {
+        // 负载先放入第usedCount个位置：节点未满时就是新条目的位置，节点已满时是预留给分裂的位置
+        this.stageEntry(insertMbb, value, geometry, expiry);
+        if (this.usedCount < getCapacity()) {
             // 未超过当前叶子节点的容量，直接增加。
-            this.data[this.usedCount] = insertMbb;
-            this.usedCount += 1;
+            this.addMaximumBoundingBox(insertMbb);
+            this.refreshSummary();
 
             if (null != this.parent) {
                 // 不需要分裂节点，只需要从父节点开始调整树。
                 ((RTIndexNode) this.parent).adjustRtree(this, null);
             }
+        } else if (this.rTree.getTreeType() == Constants.HILBERT && !isRoot()) {
+            // Hilbert R树：与合作兄弟节点重新分配条目，必要时2分3
+            this.hilbertOverflow(insertMbb);
         } else {
             // 超过单个叶子节点的容量，则需要分裂节点。
-            RTLeafNode[] splitNodes = this.splitLeaf(insertMbb);
+            RTLeafNode[] splitNodes = this.splitStaged(insertMbb);
             RTLeafNode one = splitNodes[0];
             RTLeafNode two = splitNodes[1];
 
@@ -52,6 +103,7 @@ public class RTLeafNode extends RTNode{
                 two.parent = newRoot;
                 newRoot.children.add(one);
                 newRoot.children.add(two);
+                newRoot.refreshSummary();
 
             } else {
                 RTIndexNode parentNode = (RTIndexNode) this.parent;
@@ -65,9 +117,41 @@ public class RTLeafNode extends RTNode{
     /**
      * 叶子节点分裂。当RTLeafNode容量已满，又插入一个新的Mbb，则会将原RTLeafNode分裂成两个新的RTLeafNode
      * @param insertMbb 新插入的Mbb
+     * @param value 新插入的Mbb的数值负载
      * @return RTLeafNode[], 包含两个元素，即分裂新产生的两个RTLeafNode
      */
-    public RTLeafNode[] splitLeaf(MaximumBoundingBox insertMbb) {
+    public RTLeafNode[] splitLeaf(MaximumBoundingBox insertMbb, double value) {
+        return splitLeaf(insertMbb, value, null);
+    }
+
+    /**
+     * 叶子节点分裂，新插入的Mbb带有精确几何形状
+     * @param insertMbb 新插入的Mbb
+     * @param value 新插入的Mbb的数值负载
+     * @param geometry 新插入的Mbb的精确几何形状，没有时为null
+     * @return RTLeafNode[], 包含两个元素，即分裂新产生的两个RTLeafNode
+     */
+    public RTLeafNode[] splitLeaf(MaximumBoundingBox insertMbb, double value, Geometry geometry) {
+        this.stageEntry(insertMbb, value, geometry, RTree.NO_EXPIRY);
+        return this.splitStaged(insertMbb);
+    }
+
+    /**
+     * 把新条目的负载放入第usedCount个位置，与quadraticSplit等放入data的位置一致
+     */
+    private void stageEntry(MaximumBoundingBox insertMbb, double value, Geometry geometry, long expiry) {
+        this.values[this.usedCount] = value;
+        this.setGeometry(this.usedCount, geometry);
+        this.setExpiry(this.usedCount, expiry);
+        if (this.hilbertValues != null) {
+            this.hilbertValues[this.usedCount] = rTree.hilbertValue(insertMbb);
+        }
+    }
+
+    /**
+     * 叶子节点分裂，新条目的负载已由stageEntry放入预留的位置
+     */
+    private RTLeafNode[] splitStaged(MaximumBoundingBox insertMbb) {
         int[][] group = new int[][]{new int[]{}, new int[]{}};
         switch (this.rTree.getTreeType()) {
             case Constants.RTREE_LINEAR:
@@ -79,24 +163,196 @@ public class RTLeafNode extends RTNode{
                 break;
             case Constants.RSTAR:
                 break;
+            case Constants.XTREE:
+                group = this.topologicalSplit(insertMbb);
+                break;
+            case Constants.HILBERT:
+                group = this.hilbertSplit(insertMbb);
+                break;
             default:
                 throw new IllegalArgumentException("Invalid Tree Type");
         }
 
         RTLeafNode one = new RTLeafNode(rTree, this.parent);
         RTLeafNode two = new RTLeafNode(rTree, this.parent);
+        if (this.rTree.getTreeType() == Constants.XTREE) {
+            // 记录分裂历史
+            one.splitHistory = this.splitHistory | (1L << this.splitAxis);
+            two.splitHistory = one.splitHistory;
+        }
         int[] dataIndexOfOne = group[0];
         int[] dataIndexOfTwo = group[1];
         for (int index : dataIndexOfOne) {
-            one.addMaximumBoundingBox(this.data[index]);
+            one.addEntry(this, index);
         }
         for (int index : dataIndexOfTwo) {
-            two.addMaximumBoundingBox(this.data[index]);
+            two.addEntry(this, index);
         }
+        one.refreshSummary();
+        two.refreshSummary();
 
         return new RTLeafNode[]{one, two};
     }
 
+    /**
+     * 把source中索引为index的条目（包括其负载）添加到当前叶子节点
+     * @param source 条目所在的叶子节点
+     * @param index 条目在source中的索引
+     */
+    protected void addEntry(RTLeafNode source, int index) {
+        this.values[this.usedCount] = source.values[index];
+        this.setGeometry(this.usedCount, source.geometries == null ? null : source.geometries[index]);
+        this.setExpiry(this.usedCount, source.expiryOf(index));
+        if (this.hilbertValues != null) {
+            this.hilbertValues[this.usedCount] = source.hilbertValues[index];
+        }
+        this.addMaximumBoundingBox(source.data[index]);
+    }
+
+    @Override
+    protected void growCapacity() {
+        super.growCapacity();
+        this.values = Arrays.copyOf(this.values, this.data.length);
+        if (this.hilbertValues != null) {
+            this.hilbertValues = Arrays.copyOf(this.hilbertValues, this.data.length);
+        }
+        if (this.geometries != null) {
+            this.geometries = Arrays.copyOf(this.geometries, this.data.length);
+        }
+        if (this.expiries != null) {
+            this.expiries = Arrays.copyOf(this.expiries, this.data.length);
+        }
+    }
+
+    /**
+     * 设置第index个条目的几何形状。叶子节点还没有几何形状数组且geometry为null时不创建数组。
+     */
+    protected void setGeometry(int index, Geometry geometry) {
+        if (geometry == null && this.geometries == null) {
+            return;
+        }
+        if (this.geometries == null) {
+            this.geometries = new Geometry[this.data.length];
+        }
+        this.geometries[index] = geometry;
+    }
+
+    /**
+     * @param index 条目索引
+     * @return Geometry 第index个条目的几何形状，没有精确几何形状时以其MBB作为几何形状
+     */
+    protected Geometry geometryOf(int index) {
+        Geometry geometry = this.geometries == null ? null : this.geometries[index];
+        return geometry == null ? Geometry.box(this.data[index]) : geometry;
+    }
+
+    /**
+     * 设置第index个条目的过期时间。叶子节点还没有过期时间数组且条目不过期时不创建数组。
+     */
+    protected void setExpiry(int index, long expiry) {
+        if (expiry == RTree.NO_EXPIRY && this.expiries == null) {
+            return;
+        }
+        if (this.expiries == null) {
+            this.expiries = new long[this.data.length];
+            Arrays.fill(this.expiries, RTree.NO_EXPIRY);
+        }
+        this.expiries[index] = expiry;
+    }
+
+    /**
+     * @param index 条目索引
+     * @return long 第index个条目的过期时间，不过期时为RTree.NO_EXPIRY
+     */
+    protected long expiryOf(int index) {
+        return this.expiries == null ? RTree.NO_EXPIRY : this.expiries[index];
+    }
+
+    @Override
+    protected void addMaximumBoundingBox(MaximumBoundingBox box) {
+        super.addMaximumBoundingBox(box);
+        rTree.indexEntry(box, this);
+    }
+
+    @Override
+    protected void deleteMaximumBoundingBox(int index) {
+        rTree.unindexEntry(this.data[index], this);
+        // 负载与data保持同样的移动
+        System.arraycopy(this.values, index + 1, this.values, index, this.usedCount - index - 1);
+        if (this.hilbertValues != null) {
+            System.arraycopy(this.hilbertValues, index + 1, this.hilbertValues, index, this.usedCount - index - 1);
+        }
+        if (this.geometries != null) {
+            System.arraycopy(this.geometries, index + 1, this.geometries, index, this.usedCount - index - 1);
+            this.geometries[this.usedCount - 1] = null;
+        }
+        if (this.expiries != null) {
+            System.arraycopy(this.expiries, index + 1, this.expiries, index, this.usedCount - index - 1);
+            this.expiries[this.usedCount - 1] = RTree.NO_EXPIRY;
+        }
+        super.deleteMaximumBoundingBox(index);
+    }
+
+    /**
+     * Hilbert R树叶子节点溢出：把当前节点、合作兄弟节点的条目与新条目按Hilbert值排序后平均分配回这两个节点；
+     * 若两个节点都已满，则新建一个叶子节点，三者平均分配（2分3）。
+     * @param insertMbb 新插入的Mbb，其负载已由stageEntry放入预留的位置
+     */
+    private void hilbertOverflow(MaximumBoundingBox insertMbb) {
+        RTIndexNode parentNode = (RTIndexNode) this.parent;
+        RTLeafNode sibling = (RTLeafNode) parentNode.cooperatingSibling(this);
+
+        // 把参与分配的所有条目放到一个临时节点中
+        RTLeafNode pool = new RTLeafNode(rTree, null);
+        int total = this.usedCount + (sibling == null ? 0 : sibling.usedCount) + 1;
+        pool.ensureCapacity(total);
+        for (int index = 0; index < this.usedCount; index++) {
+            pool.addEntry(this, index);
+        }
+        for (int index = 0; sibling != null && index < sibling.usedCount; index++) {
+            pool.addEntry(sibling, index);
+        }
+        this.data[this.usedCount] = insertMbb;
+        pool.addEntry(this, this.usedCount);
+
+        // Hilbert值小的节点在前
+        List<RTLeafNode> targets = new ArrayList<>();
+        targets.add(this);
+        if (sibling != null) {
+            targets.add(sibling.largestHilbertValue < this.largestHilbertValue ? 0 : 1, sibling);
+        }
+        List<RTNode> touched = new ArrayList<>(targets);
+        RTLeafNode created = null;
+        if (total > targets.size() * rTree.getLeafCapacity()) {
+            created = new RTLeafNode(rTree, parentNode);
+            targets.add(created);
+        }
+
+        Integer[] order = pool.hilbertOrder(total);
+        for (RTLeafNode target : targets) {
+            Arrays.fill(target.data, null);
+            if (target.geometries != null) {
+                Arrays.fill(target.geometries, null);
+            }
+            if (target.expiries != null) {
+                Arrays.fill(target.expiries, RTree.NO_EXPIRY);
+            }
+            target.usedCount = 0;
+        }
+        int from = 0;
+        for (int seq = 0; seq < targets.size(); seq++) {
+            RTLeafNode target = targets.get(seq);
+            int to = from + (total - from) / (targets.size() - seq);
+            for (int index = from; index < to; index++) {
+                target.addEntry(pool, order[index]);
+            }
+            target.refreshSummary();
+            from = to;
+        }
+
+        parentNode.hilbertRedistributed(touched, created);
+    }
+
     /**
      * 从叶节点中删除deleteMbb。
      * <p>
@@ -120,8 +376,9 @@ public class RTLeafNode extends RTNode{
                     RTNode node = reInsert.get(seq);
                     // 叶子节点，直接插入
                     if (node.isLeaf()) {
-                        for (int mbbIndex = 0; mbbIndex < node.usedCount; mbbIndex++) {
-                            rTree.insert(node.data[mbbIndex]);
+                        RTLeafNode leaf = (RTLeafNode) node;
+                        for (int mbbIndex = 0; mbbIndex < leaf.usedCount; mbbIndex++) {
+                            rTree.reinsert(leaf, mbbIndex);
                         }
                     } else {
                         // ？？？ 需要后续遍历？
@@ -131,8 +388,9 @@ public class RTLeafNode extends RTNode{
                         for (int nodeIndex = 0; nodeIndex < traverseNodes.size(); nodeIndex++) {
                             RTNode rtNode = traverseNodes.get(nodeIndex);
                             if (rtNode.isLeaf()) {
-                                for (int mbbIndex = 0; mbbIndex < rtNode.usedCount; mbbIndex++) {
-                                    rTree.insert(rtNode.data[mbbIndex]);
+                                RTLeafNode leaf = (RTLeafNode) rtNode;
+                                for (int mbbIndex = 0; mbbIndex < leaf.usedCount; mbbIndex++) {
+                                    rTree.reinsert(leaf, mbbIndex);
                                 }
                             }
                         }
@@ -155,11 +413,134 @@ public class RTLeafNode extends RTNode{
     @Override
     protected RTLeafNode findLeaf(MaximumBoundingBox maximumBoundingBox) {
         for (int index = 0; index < this.usedCount; index++) {
-            if (this.data[index].enclosure(maximumBoundingBox)) {
+            // 叶子节点中需要找到与之相等的条目，仅仅包含它的条目无法被delete删除
+            if (this.data[index].equals(maximumBoundingBox)) {
                 this.deleteIndex = index;
                 return this;
             }
         }
         return null;
     }
+
+    @Override
+    protected long entryHilbert(int index) {
+        return this.hilbertValues[index];
+    }
+
+    @Override
+    protected void refreshSummary() {
+        if (this.hilbertValues != null) {
+            long largest = Long.MIN_VALUE;
+            for (int index = 0; index < this.usedCount; index++) {
+                largest = Math.max(largest, this.hilbertValues[index]);
+            }
+            this.largestHilbertValue = largest;
+        }
+        if (this.expiries != null) {
+            long earliest = RTree.NO_EXPIRY;
+            for (int index = 0; index < this.usedCount; index++) {
+                earliest = Math.min(earliest, this.expiries[index]);
+            }
+            this.earliestExpiry = earliest;
+        }
+        if (!rTree.isAggregated()) {
+            return;
+        }
+        Aggregate summary = Aggregate.create();
+        for (int index = 0; index < this.usedCount; index++) {
+            summary.add(this.values[index]);
+        }
+        this.aggregate = summary;
+    }
+
+    @Override
+    protected void search(MaximumBoundingBox window, List<MaximumBoundingBox> result) {
+        for (int index = 0; index < this.usedCount; index++) {
+            if (window.isIntersection(this.data[index])) {
+                result.add(this.data[index]);
+            }
+        }
+    }
+
+    @Override
+    protected long search(MaximumBoundingBox window, List<MaximumBoundingBox> result, QueryProfile profile) {
+        long start = System.nanoTime();
+        int hits = 0;
+        for (int index = 0; index < this.usedCount; index++) {
+            if (window.isIntersection(this.data[index])) {
+                result.add(this.data[index]);
+                hits++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        profile.visit(this.level, this.usedCount, hits, hits, elapsed);
+        return elapsed;
+    }
+
+    @Override
+    protected void searchGeometry(MaximumBoundingBox window, int relation, List<Geometry> accepted,
+                                  List<Geometry> candidates) {
+        for (int index = 0; index < this.usedCount; index++) {
+            if (!mayMatch(this.data[index], window, relation)) {
+                continue;
+            }
+            Geometry geometry = this.geometries == null ? null : this.geometries[index];
+            if (geometry == null) {
+                accepted.add(Geometry.box(this.data[index]));
+            } else if (relation == Geometry.INTERSECTS && window.enclosure(this.data[index])) {
+                // MBB落在窗口内，几何形状必然与窗口相交，跳过精化
+                accepted.add(geometry);
+            } else {
+                candidates.add(geometry);
+            }
+        }
+    }
+
+    @Override
+    protected void withinDistance(MaximumBoundingBox query, double distanceSquare, List<MaximumBoundingBox> result) {
+        for (int index = 0; index < this.usedCount; index++) {
+            if (this.data[index].minDistanceSquare(query) <= distanceSquare) {
+                result.add(this.data[index]);
+            }
+        }
+    }
+
+    @Override
+    protected void evictExpired(long now, int maxEntries, List<MaximumBoundingBox> evicted) {
+        if (this.expiries == null) {
+            return;
+        }
+        // 从后向前移除，前面的条目不会因移除而移动
+        for (int index = this.usedCount - 1; index >= 0 && evicted.size() < maxEntries; index--) {
+            if (this.expiries[index] <= now) {
+                evicted.add(this.data[index]);
+                this.deleteMaximumBoundingBox(index);
+            }
+        }
+        this.refreshSummary();
+    }
+
+    @Override
+    protected void aggregate(MaximumBoundingBox window, Aggregate result) {
+        for (int index = 0; index < this.usedCount; index++) {
+            if (window.isIntersection(this.data[index])) {
+                result.add(this.values[index]);
+            }
+        }
+    }
+
+    @Override
+    protected long aggregate(MaximumBoundingBox window, Aggregate result, QueryProfile profile) {
+        long start = System.nanoTime();
+        int hits = 0;
+        for (int index = 0; index < this.usedCount; index++) {
+            if (window.isIntersection(this.data[index])) {
+                result.add(this.values[index]);
+                hits++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        profile.visit(this.level, this.usedCount, hits, hits, elapsed);
+        return elapsed;
+    }
 }
@@ -18,13 +18,23 @@ public abstract class RTNode {
     protected int insertIndex;
     //
     protected int deleteIndex;
+    //子树的聚合摘要，仅在RTree开启聚合时维护
+    protected Aggregate aggregate;
+    //X树的分裂历史，第i位为1表示该节点所在子树曾沿第i维分裂
+    protected long splitHistory;
+    //最近一次分裂选用的维度
+    protected int splitAxis;
+    //Hilbert R树中子树所有条目的最大Hilbert值(LHV)
+    protected long largestHilbertValue;
+    //子树中最早的条目过期时间，没有会过期的条目时为RTree.NO_EXPIRY
+    protected long earliestExpiry = RTree.NO_EXPIRY;
 
     public RTNode (RTree rTree, int level, RTNode parent) {
         this.rTree = rTree;
         this.level = level;
         this.parent = parent;
         //多出来的一个用于节点的分裂
-        this.data = new MaximumBoundingBox[rTree.getNodeCapacity() + 1];
+        this.data = new MaximumBoundingBox[nodeCapacity() + 1];
         usedCount = 0;
     }
 
@@ -34,6 +44,39 @@ public abstract class RTNode {
 
     public int getUsedCount(){return usedCount;}
 
+    /**
+     * 当前节点能容纳的条目数目，X树的超级节点会大于RTree的节点容量
+     * @return int
+     */
+    public int getCapacity() {
+        return this.data.length - 1;
+    }
+
+    /**
+     * RTree为该层节点设定的容量：叶子节点为叶子节点容量，其余为节点容量
+     * @return int
+     */
+    protected int nodeCapacity() {
+        return isLeaf() ? rTree.getLeafCapacity() : rTree.getNodeCapacity();
+    }
+
+    /**
+     * 把节点容量扩大一个RTree节点容量，用于X树的超级节点
+     */
+    protected void growCapacity() {
+        this.data = Arrays.copyOf(this.data, this.data.length + nodeCapacity());
+    }
+
+    /**
+     * 扩大节点容量直到至少能容纳count个条目
+     * @param count 条目数目
+     */
+    protected void ensureCapacity(int count) {
+        while (getCapacity() < count) {
+            growCapacity();
+        }
+    }
+
     public MaximumBoundingBox getDataOfIndex(int index) {
         return (MaximumBoundingBox) data[index].clone();
     }
@@ -43,7 +86,7 @@ public abstract class RTNode {
      * @param box 待添加的MaximumBoundingBox
      */
     protected void addMaximumBoundingBox(MaximumBoundingBox box) {
-        if (this.usedCount == rTree.getNodeCapacity()) {
+        if (this.usedCount == getCapacity()) {
             throw new IllegalArgumentException("try to insert MaximumBoundingBox to a full RTNode");
         }
 
@@ -74,20 +117,22 @@ public abstract class RTNode {
      * @param reinsert 存储移除结点中剩余条目
      */
     protected void condenseTree(List<RTNode> reinsert){
+        // 当前节点的条目已变化，先更新子树摘要
+        this.refreshSummary();
         if (isRoot()) {
             // 待删除节点是根节点，且其子条目只有一条，则令这条子条目为新的根节点。
-            if (isLeaf() && 1 == this.usedCount) {
+            if (isIndex() && 1 == this.usedCount) {
                 RTIndexNode root = (RTIndexNode) this;
-                RTLeafNode child = (RTLeafNode) root.getChild(0);
+                RTNode child = root.getChild(0);
 
-                root.children.remove(this);
+                root.children.remove(child);
                 child.parent = null;
                 rTree.setRoot(child);
             }
         } else {
             RTNode parent = this.getParent();
             // ? 是否可以为1
-            long minCapacity = Math.round(rTree.getNodeCapacity() * rTree.getFillFactor());
+            long minCapacity = Math.round(nodeCapacity() * rTree.getFillFactor());
             if (this.usedCount < minCapacity) {
                 // deleteIndex ？
                 parent.deleteMaximumBoundingBox(parent.deleteIndex);
@@ -116,10 +161,10 @@ public abstract class RTNode {
         //先将MBB加入进预留的最后一个空间，实际已经超出节点的空间容量。
         this.data[this.usedCount] = box;
         int total = usedCount + 1;
-        //分裂后，每组只有 total / 2 个条目
-        int capacity = total/ 2 + 1;
+        //分裂后，每组最多可能分到 total - minNodeSize 个条目，按total分配避免越界
+        int capacity = total;
         //每个节点的最小条目数目，该数目最小为2
-        long minNodeSize = Math.round(rTree.getNodeCapacity() * rTree.getFillFactor());
+        long minNodeSize = Math.round(nodeCapacity() * rTree.getFillFactor());
         minNodeSize = minNodeSize < 2 ? 2 : minNodeSize;
 
         //用于标记被分配过的条目
@@ -231,6 +276,297 @@ public abstract class RTNode {
         return choice;
     }
 
+    /**
+     * R*树的拓扑分裂。当前节点已满时，把原节点的所有MBB(包括试图加入的这个MBB)分成两组：<br>
+     * 1. 对每一维，分别按条目的下界、上界排序，累加所有合法分组的两组外包矩形周长之和，取周长和最小的维度<br>
+     * 2. 在该维度上，取两组外包矩形重叠面积最小的分组，若重叠面积相同，取面积之和最小的分组<br>
+     * 选用的维度记录在splitAxis中。
+     * @param box 当前节点空间已满后，试图加入其中的MBB
+     * @return int[][] 分裂后每组的MBB在原节点中的索引
+     */
+    protected int[][] topologicalSplit(MaximumBoundingBox box) {
+        if (null == box) {
+            throw new IllegalArgumentException("MaximumBoundingBox is null when topologicalSplit");
+        }
+
+        this.data[this.usedCount] = box;
+        int total = this.usedCount + 1;
+        long minNodeSize = Math.round(nodeCapacity() * rTree.getFillFactor());
+        int minSize = (int) Math.max(1, Math.min(minNodeSize, total / 2));
+
+        double[][] lows = new double[total][];
+        double[][] highs = new double[total][];
+        entryBounds(total, lows, highs);
+
+        int bestAxis = 0;
+        double bestMargin = Double.POSITIVE_INFINITY;
+        for (int axis = 0; axis < rTree.getDimension(); axis++) {
+            double margin = 0;
+            for (Integer[] order : sortedOrders(axis, lows, highs, total)) {
+                SplitSweep sweep = new SplitSweep(order, lows, highs);
+                for (int split = minSize; split <= total - minSize; split++) {
+                    margin += sweep.margin(split);
+                }
+            }
+            if (margin < bestMargin) {
+                bestMargin = margin;
+                bestAxis = axis;
+            }
+        }
+
+        Distribution distribution = splitAlongAxis(bestAxis, minSize, lows, highs, total);
+        this.splitAxis = bestAxis;
+        return distribution.groups;
+    }
+
+    /**
+     * X树的分裂。<br>
+     * 1. 先做拓扑分裂，重叠率不超过XTREE_MAX_OVERLAP则采用<br>
+     * 2. 否则沿所有条目的分裂历史中共有的维度做无重叠分裂，每组至少分到XTREE_MIN_FANOUT比例的条目<br>
+     * 3. 若仍找不到合适的分裂，返回null，调用者应把当前节点扩展为超级节点
+     * @param box 当前节点空间已满后，试图加入其中的MBB
+     * @param history 试图加入的条目的分裂历史
+     * @return int[][] 分裂后每组的MBB在原节点中的索引，或null
+     */
+    protected int[][] xTreeSplit(MaximumBoundingBox box, long history) {
+        int[][] topological = topologicalSplit(box);
+        int total = this.usedCount + 1;
+        double[][] lows = new double[total][];
+        double[][] highs = new double[total][];
+        entryBounds(total, lows, highs);
+
+        if (overlapRatio(topological, lows, highs) <= Constants.XTREE_MAX_OVERLAP) {
+            return topological;
+        }
+
+        long common = history;
+        for (int index = 0; index < this.usedCount; index++) {
+            common &= entryHistory(index);
+        }
+
+        int minSize = (int) Math.max(1, Math.ceil(total * Constants.XTREE_MIN_FANOUT));
+        Distribution best = null;
+        int bestAxis = -1;
+        for (int axis = 0; axis < rTree.getDimension() && axis < Long.SIZE; axis++) {
+            if ((common & (1L << axis)) == 0) {
+                continue;
+            }
+            Distribution distribution = splitAlongAxis(axis, minSize, lows, highs, total);
+            if (best == null || distribution.overlap < best.overlap) {
+                best = distribution;
+                bestAxis = axis;
+            }
+        }
+
+        if (best != null && overlapRatio(best.groups, lows, highs) <= Constants.XTREE_MAX_OVERLAP) {
+            this.splitAxis = bestAxis;
+            return best.groups;
+        }
+        return null;
+    }
+
+    /**
+     * Hilbert R树根节点的分裂：把所有条目(包括试图加入的这个MBB)按Hilbert值排序，前一半为一组，后一半为一组。
+     * 非根节点溢出时不分裂，而是与合作兄弟节点重新分配条目（见RTIndexNode.cooperatingSibling）。
+     * @param box 当前节点空间已满后，试图加入其中的MBB，调用前其Hilbert值已放在第usedCount个条目上
+     * @return int[][] 分裂后每组的MBB在原节点中的索引
+     */
+    protected int[][] hilbertSplit(MaximumBoundingBox box) {
+        this.data[this.usedCount] = box;
+        int total = this.usedCount + 1;
+        Integer[] order = hilbertOrder(total);
+        int half = total / 2;
+        return new int[][]{toIntArray(order, 0, half), toIntArray(order, half, total)};
+    }
+
+    /**
+     * 返回前total个条目按Hilbert值从小到大排列的索引
+     */
+    protected Integer[] hilbertOrder(int total) {
+        Integer[] order = new Integer[total];
+        for (int index = 0; index < total; index++) {
+            order[index] = index;
+        }
+        Arrays.sort(order, (one, two) -> Long.compare(entryHilbert(one), entryHilbert(two)));
+        return order;
+    }
+
+    /**
+     * 返回第index个条目的Hilbert值：叶子节点为条目中心点的Hilbert值，非叶节点为子节点的LHV
+     * @param index 条目索引
+     * @return long
+     */
+    protected abstract long entryHilbert(int index);
+
+    /**
+     * 返回第index个条目的分裂历史，只有非叶节点的条目带有分裂历史
+     * @param index 条目索引
+     * @return long
+     */
+    protected long entryHistory(int index) {
+        return 0L;
+    }
+
+    /**
+     * 取data中前total个条目的上下界
+     */
+    private void entryBounds(int total, double[][] lows, double[][] highs) {
+        int dimension = rTree.getDimension();
+        for (int index = 0; index < total; index++) {
+            Point leftBottom = this.data[index].getLeftBottomPoint();
+            Point rightTop = this.data[index].getRightTopPoint();
+            lows[index] = new double[dimension];
+            highs[index] = new double[dimension];
+            for (int axis = 0; axis < dimension; axis++) {
+                lows[index][axis] = leftBottom.getValueOfIndex(axis);
+                highs[index][axis] = rightTop.getValueOfIndex(axis);
+            }
+        }
+    }
+
+    /**
+     * 分别按下界、上界对条目排序
+     */
+    private List<Integer[]> sortedOrders(int axis, double[][] lows, double[][] highs, int total) {
+        Integer[] byLow = new Integer[total];
+        Integer[] byHigh = new Integer[total];
+        for (int index = 0; index < total; index++) {
+            byLow[index] = index;
+            byHigh[index] = index;
+        }
+        Arrays.sort(byLow, (one, two) -> lows[one][axis] != lows[two][axis]
+                ? Double.compare(lows[one][axis], lows[two][axis])
+                : Double.compare(highs[one][axis], highs[two][axis]));
+        Arrays.sort(byHigh, (one, two) -> highs[one][axis] != highs[two][axis]
+                ? Double.compare(highs[one][axis], highs[two][axis])
+                : Double.compare(lows[one][axis], lows[two][axis]));
+        return Arrays.asList(byLow, byHigh);
+    }
+
+    /**
+     * 在给定维度上，取两组外包矩形重叠面积最小的分组，重叠面积相同时取面积之和最小的分组
+     */
+    private Distribution splitAlongAxis(int axis, int minSize, double[][] lows, double[][] highs, int total) {
+        Distribution best = new Distribution();
+        for (Integer[] order : sortedOrders(axis, lows, highs, total)) {
+            SplitSweep sweep = new SplitSweep(order, lows, highs);
+            for (int split = minSize; split <= total - minSize; split++) {
+                double overlap = sweep.overlap(split);
+                double area = sweep.area(split);
+                if (best.groups == null || overlap < best.overlap || (overlap == best.overlap && area < best.area)) {
+                    best.overlap = overlap;
+                    best.area = area;
+                    best.groups = new int[][]{
+                            toIntArray(order, 0, split),
+                            toIntArray(order, split, total)
+                    };
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 分组的重叠率：两组外包矩形的重叠面积 / 两组外包矩形并集的面积
+     */
+    private double overlapRatio(int[][] groups, double[][] lows, double[][] highs) {
+        Integer[] order = new Integer[groups[0].length + groups[1].length];
+        int seq = 0;
+        for (int[] group : groups) {
+            for (int index : group) {
+                order[seq++] = index;
+            }
+        }
+        SplitSweep sweep = new SplitSweep(order, lows, highs);
+        double overlap = sweep.overlap(groups[0].length);
+        double union = sweep.area(groups[0].length) - overlap;
+        return union > 0 ? overlap / union : (overlap > 0 ? 1.0 : 0.0);
+    }
+
+    private static int[] toIntArray(Integer[] order, int from, int to) {
+        int[] result = new int[to - from];
+        for (int index = from; index < to; index++) {
+            result[index - from] = order[index];
+        }
+        return result;
+    }
+
+    /**
+     * 一次分裂的候选分组
+     */
+    private static class Distribution {
+        int[][] groups;
+        double overlap;
+        double area;
+    }
+
+    /**
+     * 按给定顺序预先计算前缀、后缀外包矩形，使得任意分割点处两组的周长、面积、重叠面积可以O(维度)求出
+     */
+    private static class SplitSweep {
+        private final int dimension;
+        // prefixLow[k] 为order中前k个条目的外包矩形下界，suffixLow[k] 为第k个及之后条目的外包矩形下界
+        private final double[][] prefixLow;
+        private final double[][] prefixHigh;
+        private final double[][] suffixLow;
+        private final double[][] suffixHigh;
+
+        SplitSweep(Integer[] order, double[][] lows, double[][] highs) {
+            int total = order.length;
+            this.dimension = lows[order[0]].length;
+            prefixLow = new double[total + 1][dimension];
+            prefixHigh = new double[total + 1][dimension];
+            suffixLow = new double[total + 1][dimension];
+            suffixHigh = new double[total + 1][dimension];
+            Arrays.fill(prefixLow[0], Double.POSITIVE_INFINITY);
+            Arrays.fill(prefixHigh[0], Double.NEGATIVE_INFINITY);
+            Arrays.fill(suffixLow[total], Double.POSITIVE_INFINITY);
+            Arrays.fill(suffixHigh[total], Double.NEGATIVE_INFINITY);
+            for (int seq = 0; seq < total; seq++) {
+                int head = order[seq];
+                int tail = order[total - 1 - seq];
+                for (int axis = 0; axis < dimension; axis++) {
+                    prefixLow[seq + 1][axis] = Math.min(prefixLow[seq][axis], lows[head][axis]);
+                    prefixHigh[seq + 1][axis] = Math.max(prefixHigh[seq][axis], highs[head][axis]);
+                    suffixLow[total - 1 - seq][axis] = Math.min(suffixLow[total - seq][axis], lows[tail][axis]);
+                    suffixHigh[total - 1 - seq][axis] = Math.max(suffixHigh[total - seq][axis], highs[tail][axis]);
+                }
+            }
+        }
+
+        double margin(int split) {
+            double margin = 0;
+            for (int axis = 0; axis < dimension; axis++) {
+                margin += prefixHigh[split][axis] - prefixLow[split][axis];
+                margin += suffixHigh[split][axis] - suffixLow[split][axis];
+            }
+            return margin;
+        }
+
+        double area(int split) {
+            double one = 1.0;
+            double two = 1.0;
+            for (int axis = 0; axis < dimension; axis++) {
+                one *= prefixHigh[split][axis] - prefixLow[split][axis];
+                two *= suffixHigh[split][axis] - suffixLow[split][axis];
+            }
+            return one + two;
+        }
+
+        double overlap(int split) {
+            double overlap = 1.0;
+            for (int axis = 0; axis < dimension; axis++) {
+                double low = Math.max(prefixLow[split][axis], suffixLow[split][axis]);
+                double high = Math.min(prefixHigh[split][axis], suffixHigh[split][axis]);
+                if (high < low) {
+                    return 0.0;
+                }
+                overlap *= high - low;
+            }
+            return overlap;
+        }
+    }
+
     /**
      * 在当前节点空间已满，需要作分裂时用，遍历所有的data元素构成的二元组，根据公式计算以该二元组分裂后产生的新的空间的冗余，
      * 取冗余最大的一组。
@@ -275,17 +611,138 @@ public abstract class RTNode {
      */
     public MaximumBoundingBox getMaximumBoundingBox() {
         if (this.usedCount > 0) {
-            MaximumBoundingBox[] dataCopy = Arrays.copyOf(this.data, this.usedCount);
-            MaximumBoundingBox box = dataCopy[0];
-            for (int index = 1; index < dataCopy.length; index++) {
-                box = box.unionAsMaximumBoundingBox(dataCopy[index]);
+            // 一次遍历求出各维的最小、最大值，不为中间结果创建MBB
+            int dimension = this.data[0].dimension();
+            double[] dataOfLeftBottom = new double[dimension];
+            double[] dataOfRightTop = new double[dimension];
+            for (int axis = 0; axis < dimension; axis++) {
+                double low = Double.POSITIVE_INFINITY;
+                double high = Double.NEGATIVE_INFINITY;
+                for (int index = 0; index < this.usedCount; index++) {
+                    low = Math.min(low, this.data[index].getLow(axis));
+                    high = Math.max(high, this.data[index].getHigh(axis));
+                }
+                dataOfLeftBottom[axis] = low;
+                dataOfRightTop[axis] = high;
             }
-            return box;
+            return MaximumBoundingBox.create(Point.create(dataOfLeftBottom), Point.create(dataOfRightTop));
         } else {
             return MaximumBoundingBox.create(Point.create(new double[]{0, 0}), Point.create(new double[] {0, 0}));
         }
     }
 
+    /**
+     * 返回当前节点子树的聚合摘要，RTree未开启聚合时返回null
+     * @return Aggregate
+     */
+    public Aggregate getAggregate() {
+        return rTree.isAggregated() ? this.aggregate : null;
+    }
+
+    /**
+     * 根据当前节点的条目重新计算子树的聚合摘要。RTree未开启聚合时不做任何事。
+     */
+    protected abstract void refreshSummary();
+
+    /**
+     * 范围查询，把与window相交的所有条目加入result
+     * @param window 查询窗口
+     * @param result 查询结果
+     */
+    protected abstract void search(MaximumBoundingBox window, List<MaximumBoundingBox> result);
+
+    /**
+     * 剖析模式的范围查询，与search(window, result)相同，同时把每个节点的访问记录到profile
+     * @param window 查询窗口
+     * @param result 查询结果
+     * @param profile 剖析结果
+     * @return long 子树上花费的时间
+     */
+    protected abstract long search(MaximumBoundingBox window, List<MaximumBoundingBox> result, QueryProfile profile);
+
+    /**
+     * 区域聚合，把与window相交的所有条目的负载累加到result。
+     * 开启聚合时，被window完全包含的子树直接合并其摘要，不再向下遍历。
+     * @param window 查询窗口
+     * @param result 聚合结果
+     */
+    protected abstract void aggregate(MaximumBoundingBox window, Aggregate result);
+
+    /**
+     * 剖析模式的区域聚合，与aggregate(window, result)相同，同时把每个节点的访问记录到profile
+     * @param window 查询窗口
+     * @param result 聚合结果
+     * @param profile 剖析结果
+     * @return long 子树上花费的时间
+     */
+    protected abstract long aggregate(MaximumBoundingBox window, Aggregate result, QueryProfile profile);
+
+    /**
+     * 几何查询的过滤阶段。INTERSECTS时沿与window相交的子树向下，CONTAINS时沿包含window的子树向下。
+     * 叶子条目的关系已经能由MBB确定时（MBB落在window内的相交查询，或没有精确几何形状的条目）直接加入accepted，
+     * 否则加入candidates，留待精化阶段精确判断。
+     * @param window 查询窗口
+     * @param relation Geometry.INTERSECTS 或 Geometry.CONTAINS
+     * @param accepted 不需要精化的结果
+     * @param candidates 需要精化的候选
+     */
+    protected abstract void searchGeometry(MaximumBoundingBox window, int relation, List<Geometry> accepted,
+                                           List<Geometry> candidates);
+
+    /**
+     * 几何查询中条目或子树的MBB能否满足relation
+     */
+    protected static boolean mayMatch(MaximumBoundingBox box, MaximumBoundingBox window, int relation) {
+        return relation == Geometry.CONTAINS ? box.enclosure(window) : box.isIntersection(window);
+    }
+
+    /**
+     * 距离查询，把与query的最小距离不超过给定值的所有条目加入result。
+     * 子节点的外包矩形与query的最小距离（MINDIST）超过给定值时，整棵子树被剪枝。
+     * @param query 查询的MBB，点查询时为点MBB
+     * @param distanceSquare 距离上限的平方
+     * @param result 查询结果
+     */
+    protected abstract void withinDistance(MaximumBoundingBox query, double distanceSquare,
+                                           List<MaximumBoundingBox> result);
+
+    /**
+     * 移除子树中过期时间不晚于now的条目，最多移除到evicted中共有maxEntries个条目。
+     * 只进入最早过期时间不晚于now的子树；条目被原地移除，不做下溢处理与重新插入，被清空的子节点直接从父节点中移除。
+     * 调用后节点的摘要已更新，但它在父节点中的MBB需要由调用者更新。
+     * @param now 当前时间
+     * @param maxEntries 本次最多移除的条目数
+     * @param evicted 被移除的条目
+     */
+    protected abstract void evictExpired(long now, int maxEntries, List<MaximumBoundingBox> evicted);
+
+    /**
+     * 距离自连接的双重遍历：找出当前节点子树与other子树之间距离不超过给定值的所有条目对。
+     * 两个节点在同一层；当前节点与other相同时，每对条目只输出一次，且不输出条目与自身的配对。
+     * @param other 与当前节点同层的节点
+     * @param distanceSquare 距离上限的平方
+     * @param result 条目对，每个元素是长度为2的数组
+     */
+    protected void distanceJoin(RTNode other, double distanceSquare, List<MaximumBoundingBox[]> result) {
+        boolean self = this == other;
+        for (int index = 0; index < this.usedCount; index++) {
+            for (int otherIndex = self ? index : 0; otherIndex < other.usedCount; otherIndex++) {
+                if (self && this.isLeaf() && index == otherIndex) {
+                    continue;
+                }
+                if (this.data[index].minDistanceSquare(other.data[otherIndex]) > distanceSquare) {
+                    continue;
+                }
+                if (this.isLeaf()) {
+                    result.add(new MaximumBoundingBox[]{this.data[index], other.data[otherIndex]});
+                } else {
+                    RTNode child = ((RTIndexNode) this).getChild(index);
+                    child.distanceJoin(((RTIndexNode) other).getChild(otherIndex), distanceSquare, result);
+                }
+            }
+        }
+    }
+
     /**
      * 当前节点是否是空节点
      * @return boolean
@@ -1,30 +1,148 @@
 package share.shiguri.code.rtree;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
 
 public class RTree {
+    // 条目不过期时的过期时间
+    public static final long NO_EXPIRY = Long.MAX_VALUE;
+    // 几何查询的候选数目达到该值时并行精化
+    private static final int PARALLEL_REFINE_THRESHOLD = 1024;
+    // 批量k近邻查询中每组查询点的数目，不超过64，组内成员用long的位表示
+    private static final int NEAREST_GROUP_SIZE = 32;
+    // 批量k近邻查询中一组查询点在每一维上的跨度上限，以估算的叶子节点边长为单位
+    private static final double NEAREST_GROUP_SPAN = 4.0;
+    // 选择率估算时精确读取的顶层层数
+    private static final int ESTIMATE_LEVELS = 2;
+
     private RTNode root;
     private int rTreeType;
     // 节点容量
     private int nodeCapacity = -1;
+    // 叶子节点容量，默认与节点容量相同
+    private int leafCapacity = -1;
     // 节点填充因子，用于计算每个节点的最小条目数
     private double fillFactor = -1;
     private int dimension;
+    // 是否在节点中维护子树聚合摘要
+    private boolean aggregated = false;
+    // Hilbert R树的编码空间以及每维的位数
+    private MaximumBoundingBox hilbertSpace;
+    private double[] hilbertLow;
+    private double[] hilbertExtent;
+    private int hilbertBits;
+    // 一次插入中chooseLeaf的每一层都要用到同一个Hilbert值，缓存最近一次计算的结果
+    private MaximumBoundingBox lastHilbertBox;
+    private long lastHilbertValue;
+    // 常驻查询窗口的索引，以及每个窗口上注册的查询，首次注册时创建
+    private RTree standingQueryIndex;
+    private Map<MaximumBoundingBox, List<StandingQuery>> standingQueries;
+    // 范围查询的结果缓存，为null时不缓存
+    private QueryCache queryCache;
+    // 插入提示：记住上一次插入所用的叶子节点，按线程记录时使用threadLastLeaf
+    private boolean insertHint = false;
+    private RTLeafNode lastLeaf;
+    private ThreadLocal<RTLeafNode> threadLastLeaf;
+    // 是否插入过会过期的条目，之后节点才维护子树最早的过期时间
+    private boolean expiring = false;
+    // 条目到所在叶子节点的反向索引，为null时不维护
+    private Map<MaximumBoundingBox, RTLeafNode> entryLeaves;
 
     public RTree(int nodeCapacity, int rTreeType, double fillFactor, int dimension) {
+        this(nodeCapacity, nodeCapacity, rTreeType, fillFactor, dimension);
+    }
+
+    /**
+     * 创建叶子节点与中间节点容量不同的RTree。叶子条目只需要比较MBB，较大的叶子节点可以降低树高；
+     * 中间节点在每次查询时都会被扫描，较小的中间节点可以减少无效的比较。
+     * @param nodeCapacity 中间节点容量
+     * @param leafCapacity 叶子节点容量
+     * @param rTreeType 树的类型
+     * @param fillFactor 填充因子，叶子节点与中间节点的最小条目数分别按各自的容量计算
+     * @param dimension 维度
+     */
+    public RTree(int nodeCapacity, int leafCapacity, int rTreeType, double fillFactor, int dimension) {
+        if (rTreeType == Constants.HILBERT) {
+            throw new IllegalArgumentException("Hilbert RTree needs a space, use RTree(nodeCapacity, fillFactor, space)");
+        }
+        if (nodeCapacity < 2 || leafCapacity < 2) {
+            throw new IllegalArgumentException("nodeCapacity and leafCapacity must more than 1");
+        }
         this.rTreeType = rTreeType;
         this.nodeCapacity = nodeCapacity;
+        this.leafCapacity = leafCapacity;
         this.fillFactor = fillFactor;
         this.dimension = dimension;
         this.root = new RTLeafNode(this, null);
     }
 
+    /**
+     * 创建Hilbert R树。条目中心点在space上按网格编码为Hilbert值，space之外的点被截断到边界上。
+     * @param nodeCapacity 节点容量
+     * @param fillFactor 填充因子
+     * @param space 数据所在的空间
+     */
+    public RTree(int nodeCapacity, double fillFactor, MaximumBoundingBox space) {
+        this(nodeCapacity, nodeCapacity, fillFactor, space);
+    }
+
+    /**
+     * 创建叶子节点与中间节点容量不同的Hilbert R树
+     * @param nodeCapacity 中间节点容量
+     * @param leafCapacity 叶子节点容量
+     * @param fillFactor 填充因子
+     * @param space 数据所在的空间
+     */
+    public RTree(int nodeCapacity, int leafCapacity, double fillFactor, MaximumBoundingBox space) {
+        if (space == null) {
+            throw new IllegalArgumentException("space can't be null");
+        }
+        if (space.dimension() > Long.SIZE - 1) {
+            throw new IllegalArgumentException("Hilbert RTree supports at most 63 dimensions");
+        }
+        if (nodeCapacity < 2 || leafCapacity < 2) {
+            throw new IllegalArgumentException("nodeCapacity and leafCapacity must more than 1");
+        }
+        this.rTreeType = Constants.HILBERT;
+        this.nodeCapacity = nodeCapacity;
+        this.leafCapacity = leafCapacity;
+        this.fillFactor = fillFactor;
+        this.dimension = space.dimension();
+        this.hilbertSpace = space;
+        this.hilbertBits = Math.min(31, (Long.SIZE - 1) / this.dimension);
+        this.hilbertLow = new double[this.dimension];
+        this.hilbertExtent = new double[this.dimension];
+        Point spaceLeftBottom = space.getLeftBottomPoint();
+        Point spaceRightTop = space.getRightTopPoint();
+        for (int index = 0; index < this.dimension; index++) {
+            hilbertLow[index] = spaceLeftBottom.getValueOfIndex(index);
+            hilbertExtent[index] = spaceRightTop.getValueOfIndex(index) - hilbertLow[index];
+        }
+        this.root = new RTLeafNode(this, null);
+    }
+
     public int getNodeCapacity() {
         return this.nodeCapacity;
     }
 
+    public int getLeafCapacity() {
+        return this.leafCapacity;
+    }
+
     public int getDimension() {
         return this.dimension;
     }
@@ -37,24 +155,347 @@ public class RTree {
         return this.rTreeType;
     }
 
+    public MaximumBoundingBox getHilbertSpace() {
+        return this.hilbertSpace;
+    }
+
+    /**
+     * 返回mbb中心点在Hilbert曲线上的序号
+     * @param mbb MaximumBoundingBox
+     * @return long
+     */
+    long hilbertValue(MaximumBoundingBox mbb) {
+        if (mbb == lastHilbertBox) {
+            return lastHilbertValue;
+        }
+
+        Point leftBottom = mbb.getLeftBottomPoint();
+        Point rightTop = mbb.getRightTopPoint();
+        long cells = (1L << hilbertBits) - 1;
+
+        long[] coordinates = new long[dimension];
+        for (int index = 0; index < dimension; index++) {
+            double center = (leftBottom.getValueOfIndex(index) + rightTop.getValueOfIndex(index)) / 2;
+            double ratio = hilbertExtent[index] > 0 ? (center - hilbertLow[index]) / hilbertExtent[index] : 0.0;
+            ratio = Math.max(0.0, Math.min(1.0, ratio));
+            coordinates[index] = (long) (ratio * cells);
+        }
+        lastHilbertValue = HilbertCurve.index(coordinates, hilbertBits);
+        lastHilbertBox = mbb;
+        return lastHilbertValue;
+    }
+
     public void setRoot(RTNode root) {
         this.root = root;
     }
 
     public RTNode getRoot() {return this.root;}
 
+    public boolean isAggregated() {
+        return this.aggregated;
+    }
+
+    public boolean isExpiring() {
+        return this.expiring;
+    }
+
+    public boolean isLeafIndex() {
+        return this.entryLeaves != null;
+    }
+
+    /**
+     * 开启或关闭条目到叶子节点的反向索引。开启后delete、update直接由索引找到条目所在的叶子节点，
+     * 再沿父指针向上确认路径，不再从根节点开始查找所有包含该条目的子树，节点重叠严重时删除延迟更稳定。
+     * 索引随插入、分裂、condenseTree的重新插入、Hilbert重新分配与过期移除维护，每个条目多占用一个哈希表项。
+     * 开启时会为已有的所有条目建立索引。
+     * @param enabled boolean
+     */
+    public void setLeafIndex(boolean enabled) {
+        if (!enabled) {
+            this.entryLeaves = null;
+            return;
+        }
+        this.entryLeaves = new HashMap<>();
+        for (RTNode node : traversePostOrder(this.root)) {
+            if (node.isLeaf()) {
+                RTLeafNode leaf = (RTLeafNode) node;
+                for (int index = 0; index < leaf.usedCount; index++) {
+                    this.entryLeaves.put(leaf.data[index], leaf);
+                }
+            }
+        }
+    }
+
+    /**
+     * 条目被放入leaf时由叶子节点调用
+     */
+    void indexEntry(MaximumBoundingBox mbb, RTLeafNode leaf) {
+        if (this.entryLeaves != null) {
+            this.entryLeaves.put(mbb, leaf);
+        }
+    }
+
+    /**
+     * 条目从leaf中移除时由叶子节点调用。相等的条目可能在其他叶子节点中还有一份，此时索引指向的不是leaf，保持不变。
+     */
+    void unindexEntry(MaximumBoundingBox mbb, RTLeafNode leaf) {
+        if (this.entryLeaves != null) {
+            this.entryLeaves.remove(mbb, leaf);
+        }
+    }
+
+    /**
+     * 找到mbb所在的叶子节点，并设置从根节点到该叶子节点路径上每层的deleteIndex。
+     * 反向索引命中且该叶子节点仍在树中时直接返回，否则退回findLeaf。
+     * @param mbb MaximumBoundingBox
+     * @return RTLeafNode 不存在时返回null
+     */
+    RTLeafNode locateLeaf(MaximumBoundingBox mbb) {
+        if (this.entryLeaves != null) {
+            RTLeafNode leaf = this.entryLeaves.get(mbb);
+            if (leaf != null && holds(leaf, mbb)) {
+                return leaf;
+            }
+        }
+        return root.findLeaf(mbb);
+    }
+
+    /**
+     * 确认leaf中有mbb且leaf仍在当前树中，同时沿父指针记录每层的deleteIndex
+     */
+    private boolean holds(RTLeafNode leaf, MaximumBoundingBox mbb) {
+        int found = -1;
+        for (int index = 0; index < leaf.usedCount && found < 0; index++) {
+            if (leaf.data[index].equals(mbb)) {
+                found = index;
+            }
+        }
+        if (found < 0) {
+            return false;
+        }
+        leaf.deleteIndex = found;
+
+        RTNode node = leaf;
+        while (node.parent != null) {
+            RTIndexNode parent = (RTIndexNode) node.parent;
+            int index = parent.children.indexOf(node);
+            if (index < 0) {
+                return false;
+            }
+            parent.deleteIndex = index;
+            node = parent;
+        }
+        return node == this.root;
+    }
+
+    /**
+     * 开启或关闭子树聚合摘要。开启时会为已有的所有节点重新计算摘要。
+     * @param aggregated boolean
+     */
+    public void setAggregated(boolean aggregated) {
+        this.aggregated = aggregated;
+        if (aggregated) {
+            refreshSummaryPostOrder(this.root);
+        }
+    }
+
+    private void refreshSummaryPostOrder(RTNode node) {
+        if (!node.isLeaf()) {
+            RTIndexNode indexNode = (RTIndexNode) node;
+            for (int index = 0; index < indexNode.usedCount; index++) {
+                refreshSummaryPostOrder(indexNode.getChild(index));
+            }
+        }
+        node.refreshSummary();
+    }
+
     public boolean insert(MaximumBoundingBox mbb) {
+        return insert(mbb, 0d);
+    }
+
+    /**
+     * 插入一个带数值负载的MBB，负载用于aggregate()的sum/min/max。
+     * @param mbb MaximumBoundingBox
+     * @param value 数值负载
+     * @return boolean
+     */
+    public boolean insert(MaximumBoundingBox mbb, double value) {
+        if (mbb == null) {
+            throw new IllegalArgumentException("can not insert null");
+        }
+
+        if (mbb.dimension() != this.getDimension()) {
+            throw new IllegalArgumentException("dimension not equal");
+        }
+
+        return insertEntry(mbb, value, null, NO_EXPIRY);
+    }
+
+    /**
+     * 插入一个会过期的条目。过期的条目在evictExpired()时被移除，移除前仍然可以被查询到。
+     * @param mbb MaximumBoundingBox
+     * @param value 数值负载
+     * @param expiry 过期时间，与evictExpired()的now使用同一时钟，例如System.currentTimeMillis() + ttl
+     * @return boolean
+     */
+    public boolean insert(MaximumBoundingBox mbb, double value, long expiry) {
         if (mbb == null) {
             throw new IllegalArgumentException("can not insert null");
         }
 
-        if (mbb.getLeftBottomPoint().dimension() != this.getDimension()) {
+        if (mbb.dimension() != this.getDimension()) {
             throw new IllegalArgumentException("dimension not equal");
         }
 
+        if (expiry != NO_EXPIRY && !this.expiring) {
+            // 已有的条目都不过期，节点上默认的NO_EXPIRY就是正确的摘要
+            this.expiring = true;
+        }
+        return insertEntry(mbb, value, null, expiry);
+    }
+
+    public boolean insert(Geometry geometry) {
+        return insert(geometry, 0d);
+    }
+
+    /**
+     * 插入一个带精确几何形状的条目，条目的MBB是几何形状的外包矩形。
+     * 几何形状存放在叶子节点中，供searchGeometry()的精化阶段使用。
+     * @param geometry 几何形状
+     * @param value 数值负载
+     * @return boolean
+     */
+    public boolean insert(Geometry geometry, double value) {
+        if (geometry == null) {
+            throw new IllegalArgumentException("can not insert null");
+        }
+
+        MaximumBoundingBox mbb = geometry.getMaximumBoundingBox();
+        if (mbb.dimension() != this.getDimension()) {
+            throw new IllegalArgumentException("dimension not equal");
+        }
+
+        return insertEntry(mbb, value, geometry.getType() == Geometry.BOX ? null : geometry, NO_EXPIRY);
+    }
+
+    private boolean insertEntry(MaximumBoundingBox mbb, double value, Geometry geometry, long expiry) {
+        boolean result = insertHint
+                ? hintedInsert(mbb, value, geometry, expiry)
+                : reinsert(mbb, value, geometry, expiry);
+        invalidateCache(mbb);
+        notifyInsert(mbb);
+        return result;
+    }
+
+    /**
+     * 开启或关闭插入提示。开启后树会记住上一次插入所用的叶子节点，若新的MBB落在该叶子节点的外包矩形内且节点还有空间，
+     * 则直接插入该叶子节点，跳过从根节点开始的chooseLeaf。适用于空间上有序到达的数据，例如按轨迹顺序到达的GPS点。
+     * @param enabled 是否开启
+     * @param perThread 为true时每个线程分别记住自己上一次插入的叶子节点，树本身仍需由调用者保证互斥修改
+     */
+    public void setInsertHint(boolean enabled, boolean perThread) {
+        this.insertHint = enabled;
+        this.lastLeaf = null;
+        this.threadLastLeaf = enabled && perThread ? new ThreadLocal<>() : null;
+    }
+
+    public boolean isInsertHint() {
+        return this.insertHint;
+    }
+
+    /**
+     * 先尝试插入提示的叶子节点，不满足条件时退回chooseLeaf，并记住这次选中的叶子节点
+     */
+    private boolean hintedInsert(MaximumBoundingBox mbb, double value, Geometry geometry, long expiry) {
+        RTLeafNode hint = threadLastLeaf != null ? threadLastLeaf.get() : lastLeaf;
+        RTLeafNode leaf = hint != null && hintFits(hint, mbb) ? hint : root.chooseLeaf(mbb);
+        if (leaf != hint) {
+            if (threadLastLeaf != null) {
+                threadLastLeaf.set(leaf);
+            } else {
+                lastLeaf = leaf;
+            }
+        }
+        return leaf.insert(mbb, value, geometry, expiry);
+    }
+
+    /**
+     * 判断提示的叶子节点能否直接容纳mbb：节点还有空间，仍在当前树中，且其外包矩形包含mbb。
+     * 同时沿途记录每层的insertIndex，供插入后的向上调整使用。
+     */
+    private boolean hintFits(RTLeafNode leaf, MaximumBoundingBox mbb) {
+        if (leaf.rTree != this || leaf.usedCount >= leaf.getCapacity()) {
+            return false;
+        }
+
+        RTNode node = leaf;
+        while (node.parent != null) {
+            RTIndexNode parent = (RTIndexNode) node.parent;
+            int index = parent.children.indexOf(node);
+            if (index < 0) {
+                // 节点已经分裂或被删除
+                return false;
+            }
+            if (node == leaf && !parent.data[index].enclosure(mbb)) {
+                return false;
+            }
+            parent.insertIndex = index;
+            node = parent;
+        }
+        if (node != this.root) {
+            return false;
+        }
+
+        if (leaf.hilbertValues != null) {
+            // Hilbert R树还要求新条目的Hilbert值落在该叶子节点的Hilbert值范围内，以保持叶子间的Hilbert顺序
+            long hilbertValue = hilbertValue(mbb);
+            boolean below = false;
+            for (int index = 0; index < leaf.usedCount && !below; index++) {
+                below = leaf.hilbertValues[index] <= hilbertValue;
+            }
+            return below && hilbertValue <= leaf.largestHilbertValue;
+        }
+        return true;
+    }
+
+    /**
+     * 点模式插入：以点MBB存储，叶子中每个条目只保存一份坐标。
+     * @param point Point
+     * @return boolean
+     */
+    public boolean insert(Point point) {
+        return insert(point, 0d);
+    }
+
+    public boolean insert(Point point, double value) {
+        if (point == null) {
+            throw new IllegalArgumentException("can not insert null");
+        }
+        return insert(MaximumBoundingBox.create(point), value);
+    }
+
+    /**
+     * 不做参数检查的插入，供删除后重新插入条目时使用。
+     */
+    boolean reinsert(MaximumBoundingBox mbb, double value, Geometry geometry, long expiry) {
         RTLeafNode leaf = root.chooseLeaf(mbb);
 
-        return leaf.insert(mbb);
+        return leaf.insert(mbb, value, geometry, expiry);
+    }
+
+    /**
+     * 重新插入source中第index个条目及其全部负载
+     */
+    boolean reinsert(RTLeafNode source, int index) {
+        return reinsert(source.data[index], source.values[index],
+                source.geometries == null ? null : source.geometries[index], source.expiryOf(index));
+    }
+
+    public int delete(Point point) {
+        if (point == null) {
+            throw new IllegalArgumentException("can not delete null");
+        }
+        return delete(MaximumBoundingBox.create(point));
     }
 
     public int delete(MaximumBoundingBox mbb) {
@@ -62,18 +503,1162 @@ public class RTree {
             throw new IllegalArgumentException("can not insert null");
         }
 
-        if (mbb.getLeftBottomPoint().dimension() != this.getDimension()) {
+        if (mbb.dimension() != this.getDimension()) {
             throw new IllegalArgumentException("dimension not equal");
         }
 
-        RTLeafNode leaf = root.findLeaf(mbb);
+        RTLeafNode leaf = locateLeaf(mbb);
         if (leaf != null) {
-            return leaf.delete(mbb);
+            int result = leaf.delete(mbb);
+            invalidateCache(mbb);
+            notifyDelete(mbb);
+            return result;
         }
 
         return -1;
     }
 
+    /**
+     * 移除过期时间不晚于now的条目，一次最多移除maxEntries个，剩余的过期条目留给下一次调用。<br>
+     * 借助节点上的子树最早过期时间跳过没有过期条目的子树。过期条目在叶子节点中原地移除，只向上收紧外包矩形，
+     * 不像delete()那样对下溢的节点做condenseTree与重新插入，因此节点可能低于最小填充，只有被清空的节点会被移除。
+     * @param now 当前时间，与插入时的过期时间使用同一时钟
+     * @param maxEntries 本次最多移除的条目数
+     * @return int 移除的条目数，小于maxEntries时说明已没有过期的条目
+     */
+    public int evictExpired(long now, int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        if (root.earliestExpiry > now) {
+            return 0;
+        }
+
+        List<MaximumBoundingBox> evicted = new ArrayList<>();
+        root.evictExpired(now, maxEntries, evicted);
+        // 根节点只剩一个子节点时降低树高，索引根节点被清空时换成空的叶子节点
+        while (root.isIndex() && root.usedCount <= 1) {
+            RTIndexNode indexRoot = (RTIndexNode) root;
+            if (indexRoot.usedCount == 0) {
+                root = new RTLeafNode(this, null);
+            } else {
+                RTNode child = indexRoot.getChild(0);
+                indexRoot.children.clear();
+                child.parent = null;
+                root = child;
+            }
+        }
+        for (MaximumBoundingBox mbb : evicted) {
+            invalidateCache(mbb);
+            notifyDelete(mbb);
+        }
+        return evicted.size();
+    }
+
+    /**
+     * 把条目oldMbb更新为newMbb，保留其数值负载与过期时间。条目的精确几何形状与旧的MBB对应，更新后不再保留。
+     * @param oldMbb 更新前的MBB
+     * @param newMbb 更新后的MBB
+     * @return boolean oldMbb不存在时返回false
+     */
+    public boolean update(MaximumBoundingBox oldMbb, MaximumBoundingBox newMbb) {
+        if (oldMbb == null || newMbb == null) {
+            throw new IllegalArgumentException("can not update null");
+        }
+
+        if (oldMbb.dimension() != this.getDimension() || newMbb.dimension() != this.getDimension()) {
+            throw new IllegalArgumentException("dimension not equal");
+        }
+
+        RTLeafNode leaf = locateLeaf(oldMbb);
+        if (leaf == null) {
+            return false;
+        }
+        double value = leaf.values[leaf.deleteIndex];
+        long expiry = leaf.expiryOf(leaf.deleteIndex);
+        leaf.delete(oldMbb);
+        reinsert(newMbb, value, null, expiry);
+        invalidateCache(oldMbb);
+        invalidateCache(newMbb);
+        notifyUpdate(oldMbb, newMbb);
+        return true;
+    }
+
+    /**
+     * 注册一个常驻范围查询，之后与window相交的insert、delete、update都会回调listener。
+     * 已注册的窗口保存在一棵内部RTree中，每次修改只检查与修改的MBB相交的窗口。
+     * @param window 查询窗口
+     * @param listener 回调
+     * @return StandingQuery 用于注销
+     */
+    public StandingQuery registerQuery(MaximumBoundingBox window, RegionListener listener) {
+        checkWindow(window);
+        if (listener == null) {
+            throw new IllegalArgumentException("listener can't be null");
+        }
+
+        if (standingQueryIndex == null) {
+            standingQueryIndex = new RTree(this.nodeCapacity, this.rTreeType, this.fillFactor, this.dimension);
+            standingQueries = new HashMap<>();
+        }
+
+        StandingQuery query = new StandingQuery(this, window, listener);
+        List<StandingQuery> queries = standingQueries.get(window);
+        if (queries == null) {
+            queries = new ArrayList<>();
+            standingQueries.put(window, queries);
+            standingQueryIndex.insert(window);
+        }
+        queries.add(query);
+        return query;
+    }
+
+    /**
+     * 注销一个常驻范围查询
+     * @param query registerQuery()的返回值
+     */
+    public void unregisterQuery(StandingQuery query) {
+        if (query == null || standingQueries == null) {
+            return;
+        }
+
+        List<StandingQuery> queries = standingQueries.get(query.getWindow());
+        if (queries != null && queries.remove(query)) {
+            query.deactivate();
+            if (queries.isEmpty()) {
+                standingQueries.remove(query.getWindow());
+                standingQueryIndex.delete(query.getWindow());
+            }
+        }
+    }
+
+    /**
+     * 返回所有与box相交的常驻查询
+     */
+    private List<StandingQuery> affectedQueries(MaximumBoundingBox box) {
+        List<StandingQuery> affected = new ArrayList<>();
+        if (standingQueries == null || standingQueries.isEmpty()) {
+            return affected;
+        }
+        for (MaximumBoundingBox window : standingQueryIndex.search(box)) {
+            affected.addAll(standingQueries.get(window));
+        }
+        return affected;
+    }
+
+    private void notifyInsert(MaximumBoundingBox mbb) {
+        for (StandingQuery query : affectedQueries(mbb)) {
+            if (query.isActive()) {
+                query.getListener().onInsert(query.getWindow(), mbb);
+            }
+        }
+    }
+
+    private void notifyDelete(MaximumBoundingBox mbb) {
+        for (StandingQuery query : affectedQueries(mbb)) {
+            if (query.isActive()) {
+                query.getListener().onDelete(query.getWindow(), mbb);
+            }
+        }
+    }
+
+    private void notifyUpdate(MaximumBoundingBox oldMbb, MaximumBoundingBox newMbb) {
+        Set<StandingQuery> affected = new LinkedHashSet<>(affectedQueries(oldMbb));
+        affected.addAll(affectedQueries(newMbb));
+        for (StandingQuery query : affected) {
+            if (query.isActive()) {
+                query.getListener().onUpdate(query.getWindow(), oldMbb, newMbb);
+            }
+        }
+    }
+
+    /**
+     * 范围查询，返回所有与window相交的条目
+     * @param window 查询窗口
+     * @return List<MaximumBoundingBox>
+     */
+    public List<MaximumBoundingBox> search(MaximumBoundingBox window) {
+        checkWindow(window);
+
+        if (queryCache != null) {
+            List<MaximumBoundingBox> cached = queryCache.get(window);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        List<MaximumBoundingBox> result = new ArrayList<>();
+        root.search(window, result);
+        if (queryCache != null) {
+            queryCache.put(window, result);
+        }
+        return result;
+    }
+
+    /**
+     * 剖析模式的范围查询，结果与search(window)相同，每层节点的访问情况记录到profile。
+     * 剖析模式不读写查询缓存，测得的总是树本身的代价。
+     * @param window 查询窗口
+     * @param profile 剖析结果，为null时等同于search(window)
+     * @return List<MaximumBoundingBox>
+     */
+    public List<MaximumBoundingBox> search(MaximumBoundingBox window, QueryProfile profile) {
+        if (profile == null) {
+            return search(window);
+        }
+        checkWindow(window);
+
+        List<MaximumBoundingBox> result = new ArrayList<>();
+        profile.start(root.level + 1);
+        long elapsed = root.search(window, result, profile);
+        profile.finish(result.size(), elapsed);
+        return result;
+    }
+
+    public QueryCache getQueryCache() {
+        return this.queryCache;
+    }
+
+    /**
+     * 设置范围查询的结果缓存，为null时关闭缓存
+     * @param queryCache QueryCache
+     */
+    public void setQueryCache(QueryCache queryCache) {
+        if (queryCache != null && queryCache.getDimension() != this.dimension) {
+            throw new IllegalArgumentException("dimension not equal");
+        }
+        if (queryCache != null) {
+            queryCache.clear();
+        }
+        this.queryCache = queryCache;
+    }
+
+    private void invalidateCache(MaximumBoundingBox mbb) {
+        if (queryCache != null) {
+            queryCache.invalidate(mbb);
+        }
+    }
+
+    /**
+     * 返回与window相交的条目数目。开启聚合时，被window完全包含的子树不再向下遍历。
+     * @param window 查询窗口
+     * @return long
+     */
+    public long count(MaximumBoundingBox window) {
+        return aggregate(window).getCount();
+    }
+
+    /**
+     * 剖析模式的计数查询
+     * @param window 查询窗口
+     * @param profile 剖析结果，为null时等同于count(window)
+     * @return long
+     */
+    public long count(MaximumBoundingBox window, QueryProfile profile) {
+        return aggregate(window, profile).getCount();
+    }
+
+    /**
+     * 返回与window相交的所有条目的负载聚合（条目数、sum、min、max）。
+     * @param window 查询窗口
+     * @return Aggregate
+     */
+    public Aggregate aggregate(MaximumBoundingBox window) {
+        checkWindow(window);
+
+        Aggregate result = Aggregate.create();
+        root.aggregate(window, result);
+        return result;
+    }
+
+    /**
+     * 剖析模式的区域聚合，结果与aggregate(window)相同，每层节点的访问情况记录到profile
+     * @param window 查询窗口
+     * @param profile 剖析结果，为null时等同于aggregate(window)
+     * @return Aggregate
+     */
+    public Aggregate aggregate(MaximumBoundingBox window, QueryProfile profile) {
+        if (profile == null) {
+            return aggregate(window);
+        }
+        checkWindow(window);
+
+        Aggregate result = Aggregate.create();
+        profile.start(root.level + 1);
+        long elapsed = root.aggregate(window, result, profile);
+        profile.finish(result.getCount(), elapsed);
+        return result;
+    }
+
+    /**
+     * k近邻查询，按与point的最小距离(MINDIST)由近到远返回至多k个条目。
+     * 使用最优优先遍历：节点与条目放在同一个按距离排序的优先队列中，出队的条目必然比队列中剩余的都近。
+     * @param point 查询点
+     * @param k 返回的条目数目
+     * @return List<MaximumBoundingBox>
+     */
+    public List<MaximumBoundingBox> nearest(Point point, int k) {
+        return nearest(point, k, null);
+    }
+
+    /**
+     * 剖析模式的k近邻查询，结果与nearest(point, k)相同。每个出队展开的节点计为一次访问，
+     * 查询结束时仍留在队列中的节点计为被剪枝，叶子层的命中数为结果条目数。
+     * @param point 查询点
+     * @param k 返回的条目数目
+     * @param profile 剖析结果，为null时不做记录
+     * @return List<MaximumBoundingBox>
+     */
+    public List<MaximumBoundingBox> nearest(Point point, int k, QueryProfile profile) {
+        if (point == null) {
+            throw new IllegalArgumentException("point can't be null");
+        }
+        if (point.dimension() != this.getDimension()) {
+            throw new IllegalArgumentException("dimension not equal");
+        }
+        if (k < 1) {
+            throw new IllegalArgumentException("k must more than 0");
+        }
+
+        List<MaximumBoundingBox> result = new ArrayList<>(k);
+        PriorityQueue<NearestCandidate> queue = new PriorityQueue<>();
+        queue.add(new NearestCandidate(0.0, root, null));
+        long queryStart = 0;
+        if (profile != null) {
+            profile.start(root.level + 1);
+            queryStart = System.nanoTime();
+        }
+        while (!queue.isEmpty() && result.size() < k) {
+            NearestCandidate candidate = queue.poll();
+            if (candidate.box != null) {
+                result.add(candidate.box);
+                if (profile != null) {
+                    profile.hit(0);
+                }
+                continue;
+            }
+
+            RTNode node = candidate.node;
+            long start = profile == null ? 0 : System.nanoTime();
+            for (int index = 0; index < node.usedCount; index++) {
+                double distance = node.data[index].minDistanceSquare(point);
+                if (node.isLeaf()) {
+                    queue.add(new NearestCandidate(distance, null, node.data[index]));
+                } else {
+                    queue.add(new NearestCandidate(distance, ((RTIndexNode) node).getChild(index), null));
+                }
+            }
+            if (profile != null) {
+                // 子节点都进入队列，剪枝在查询结束时按留在队列中的节点统计；叶子条目在出队成为结果时计为命中
+                profile.visit(node.level, node.usedCount, node.isLeaf() ? 0 : node.usedCount, 1,
+                        System.nanoTime() - start);
+            }
+        }
+        if (profile != null) {
+            for (NearestCandidate candidate : queue) {
+                if (candidate.node != null) {
+                    profile.prune(candidate.node.level);
+                }
+            }
+            profile.finish(result.size(), System.nanoTime() - queryStart);
+        }
+        return result;
+    }
+
+    /**
+     * 批量k近邻查询，结果与对每个点分别调用nearest(point, k)相同（距离相等的条目之间顺序可能不同）。<br>
+     * 查询点按Hilbert顺序排序后依次分组，每组至多NEAREST_GROUP_SIZE个点，且每一维的跨度不超过
+     * NEAREST_GROUP_SPAN个估算的叶子节点边长，相距较远的点共享不了多少节点，不放在同一组；每组只遍历一次树：
+     * 节点按与组内最近成员的最小距离由近到远展开，每个点维护自己的k个最近条目，
+     * 与组MBB的距离超过各点第k近距离的最大值，或与组内每个点的距离都超过该点第k近距离的节点被剪枝，
+     * 节点同时记下还可能从中得到更近条目的组内成员，其子节点与条目只与这些成员比较，
+     * 上层节点只为整组访问一次。各组之间互不依赖，在ForkJoin公共线程池中并行处理，遍历期间不能修改树。
+     * @param points 查询点
+     * @param k 每个点返回的条目数目
+     * @return List<List<MaximumBoundingBox>> 与points一一对应，每个点的结果按距离由近到远排列
+     */
+    public List<List<MaximumBoundingBox>> nearestBatch(List<Point> points, int k) {
+        if (points == null) {
+            throw new IllegalArgumentException("points can't be null");
+        }
+        for (Point point : points) {
+            if (point == null || point.dimension() != this.dimension) {
+                throw new IllegalArgumentException("point is null or its dimension not equal");
+            }
+        }
+        if (k < 1) {
+            throw new IllegalArgumentException("k must more than 0");
+        }
+
+        Integer[] order = hilbertOrder(points);
+        double[] span = groupSpan();
+        List<int[]> groups = new ArrayList<>();
+        double[] low = new double[dimension];
+        double[] high = new double[dimension];
+        int from = 0;
+        for (int seq = 0; seq <= order.length; seq++) {
+            boolean close = seq == order.length || seq - from == NEAREST_GROUP_SIZE;
+            for (int index = 0; index < dimension && !close && seq > from; index++) {
+                double value = points.get(order[seq]).getValueOfIndex(index);
+                close = Math.max(high[index], value) - Math.min(low[index], value) > span[index];
+            }
+            if (close && seq > from) {
+                int[] group = new int[seq - from];
+                for (int index = 0; index < group.length; index++) {
+                    group[index] = order[from + index];
+                }
+                groups.add(group);
+                from = seq;
+            }
+            if (seq == order.length) {
+                break;
+            }
+            for (int index = 0; index < dimension; index++) {
+                double value = points.get(order[seq]).getValueOfIndex(index);
+                low[index] = seq == from ? value : Math.min(low[index], value);
+                high[index] = seq == from ? value : Math.max(high[index], value);
+            }
+        }
+
+        List<List<MaximumBoundingBox>> results = new ArrayList<>(Collections.nCopies(points.size(), null));
+        groups.parallelStream().forEach(group -> nearestGroup(points, group, k, results));
+        return results;
+    }
+
+    /**
+     * 一组查询点在每一维上的跨度上限：假设叶子节点在根节点范围内均匀铺开，叶子边长为 根节点边长 / 叶子数^(1/d)
+     */
+    private double[] groupSpan() {
+        double[] span = new double[dimension];
+        if (root.usedCount == 0) {
+            Arrays.fill(span, Double.POSITIVE_INFINITY);
+            return span;
+        }
+        double leaves = root.isLeaf() ? 1 : root.usedCount;
+        for (int level = 1; level < root.level; level++) {
+            leaves *= expectedFanout(level);
+        }
+        double perDimension = Math.pow(leaves, 1.0 / dimension);
+        MaximumBoundingBox space = root.getMaximumBoundingBox();
+        for (int index = 0; index < dimension; index++) {
+            double side = space.getHigh(index) - space.getLow(index);
+            span[index] = side > 0 ? NEAREST_GROUP_SPAN * side / perDimension : Double.POSITIVE_INFINITY;
+        }
+        return span;
+    }
+
+    /**
+     * 查询点在其外包矩形内按Hilbert值排序后的下标，相邻的点在空间上也相近
+     */
+    private Integer[] hilbertOrder(List<Point> points) {
+        double[] low = new double[dimension];
+        double[] high = new double[dimension];
+        Arrays.fill(low, Double.POSITIVE_INFINITY);
+        Arrays.fill(high, Double.NEGATIVE_INFINITY);
+        for (Point point : points) {
+            for (int index = 0; index < dimension; index++) {
+                low[index] = Math.min(low[index], point.getValueOfIndex(index));
+                high[index] = Math.max(high[index], point.getValueOfIndex(index));
+            }
+        }
+
+        int bits = Math.min(31, (Long.SIZE - 1) / dimension);
+        long cells = (1L << bits) - 1;
+        long[] hilbertValues = new long[points.size()];
+        Integer[] order = new Integer[points.size()];
+        for (int seq = 0; seq < points.size(); seq++) {
+            long[] coordinates = new long[dimension];
+            for (int index = 0; index < dimension; index++) {
+                double extent = high[index] - low[index];
+                double ratio = extent > 0 ? (points.get(seq).getValueOfIndex(index) - low[index]) / extent : 0.0;
+                coordinates[index] = (long) (ratio * cells);
+            }
+            hilbertValues[seq] = HilbertCurve.index(coordinates, bits);
+            order[seq] = seq;
+        }
+        Arrays.sort(order, Comparator.comparingLong(seq -> hilbertValues[seq]));
+        return order;
+    }
+
+    /**
+     * 一组查询点共享一次最优优先遍历，结果写入results中对应的位置
+     */
+    private void nearestGroup(List<Point> points, int[] group, int k, List<List<MaximumBoundingBox>> results) {
+        Point[] groupPoints = new Point[group.length];
+        double[] low = new double[dimension];
+        double[] high = new double[dimension];
+        Arrays.fill(low, Double.POSITIVE_INFINITY);
+        Arrays.fill(high, Double.NEGATIVE_INFINITY);
+        for (int member = 0; member < group.length; member++) {
+            groupPoints[member] = points.get(group[member]);
+            for (int index = 0; index < dimension; index++) {
+                low[index] = Math.min(low[index], groupPoints[member].getValueOfIndex(index));
+                high[index] = Math.max(high[index], groupPoints[member].getValueOfIndex(index));
+            }
+        }
+        MaximumBoundingBox groupBox = MaximumBoundingBox.create(Point.create(low), Point.create(high));
+
+        // 每个点的k个最近条目，堆顶为其中最远的一个；kth为第k近距离的平方，不足k个时为无穷大
+        List<PriorityQueue<NearestCandidate>> nearest = new ArrayList<>(group.length);
+        double[] kth = new double[group.length];
+        for (int member = 0; member < group.length; member++) {
+            nearest.add(new PriorityQueue<>(k + 1, Comparator.reverseOrder()));
+            kth[member] = Double.POSITIVE_INFINITY;
+        }
+        double bound = Double.POSITIVE_INFINITY;
+
+        PriorityQueue<GroupCandidate> queue = new PriorityQueue<>();
+        queue.add(new GroupCandidate(0.0, root, null, group.length == Long.SIZE ? -1L : (1L << group.length) - 1));
+        while (!queue.isEmpty()) {
+            GroupCandidate candidate = queue.poll();
+            if (candidate.distance > bound) {
+                break;
+            }
+
+            // 入队后各点的第k近距离可能已经缩小，去掉不再能从该节点得到更近条目的成员
+            long active = candidate.members;
+            if (candidate.box != null) {
+                for (long members = candidate.members; members != 0; members &= members - 1) {
+                    int member = Long.numberOfTrailingZeros(members);
+                    if (candidate.box.minDistanceSquare(groupPoints[member]) > kth[member]) {
+                        active &= ~(1L << member);
+                    }
+                }
+                if (active == 0) {
+                    continue;
+                }
+            }
+
+            RTNode node = candidate.node;
+            for (int index = 0; index < node.usedCount; index++) {
+                MaximumBoundingBox box = node.data[index];
+                double groupDistance = box.minDistanceSquare(groupBox);
+                if (groupDistance > bound) {
+                    continue;
+                }
+                if (node.isLeaf()) {
+                    for (long members = active; members != 0; members &= members - 1) {
+                        int member = Long.numberOfTrailingZeros(members);
+                        double distance = box.minDistanceSquare(groupPoints[member]);
+                        if (distance < kth[member]) {
+                            PriorityQueue<NearestCandidate> heap = nearest.get(member);
+                            heap.add(new NearestCandidate(distance, null, box));
+                            if (heap.size() > k) {
+                                heap.poll();
+                            }
+                            if (heap.size() == k) {
+                                kth[member] = heap.peek().distance;
+                            }
+                        }
+                    }
+                } else {
+                    long useful = 0;
+                    double nearestDistance = Double.POSITIVE_INFINITY;
+                    for (long members = active; members != 0; members &= members - 1) {
+                        int member = Long.numberOfTrailingZeros(members);
+                        double distance = box.minDistanceSquare(groupPoints[member]);
+                        if (distance <= kth[member]) {
+                            useful |= 1L << member;
+                            nearestDistance = Math.min(nearestDistance, distance);
+                        }
+                    }
+                    if (useful != 0) {
+                        queue.add(new GroupCandidate(nearestDistance, ((RTIndexNode) node).getChild(index), box, useful));
+                    }
+                }
+            }
+            if (node.isLeaf()) {
+                bound = 0;
+                for (double distance : kth) {
+                    bound = Math.max(bound, distance);
+                }
+            }
+        }
+
+        for (int member = 0; member < group.length; member++) {
+            PriorityQueue<NearestCandidate> heap = nearest.get(member);
+            MaximumBoundingBox[] result = new MaximumBoundingBox[heap.size()];
+            for (int index = result.length - 1; index >= 0; index--) {
+                result[index] = heap.poll().box;
+            }
+            results.set(group[member], new ArrayList<>(Arrays.asList(result)));
+        }
+    }
+
+    /**
+     * 几何查询，先用MBB在树中过滤出候选条目，再用条目的精确几何形状判断与window的关系。
+     * 候选较多时精化阶段在ForkJoin公共线程池中并行进行；MBB落在window内的相交查询直接接受，不做精化。
+     * 没有精确几何形状的条目以其MBB作为几何形状，返回Geometry.box()。
+     * @param window 查询窗口
+     * @param relation Geometry.INTERSECTS：几何形状与window相交；Geometry.CONTAINS：几何形状包含window
+     * @return List<Geometry>
+     */
+    public List<Geometry> searchGeometry(MaximumBoundingBox window, int relation) {
+        checkWindow(window);
+        if (relation != Geometry.INTERSECTS && relation != Geometry.CONTAINS) {
+            throw new IllegalArgumentException("invalid relation");
+        }
+
+        List<Geometry> result = new ArrayList<>();
+        List<Geometry> candidates = new ArrayList<>();
+        root.searchGeometry(window, relation, result, candidates);
+        if (candidates.size() >= PARALLEL_REFINE_THRESHOLD) {
+            result.addAll(candidates.parallelStream()
+                    .filter(geometry -> geometry.matches(window, relation))
+                    .collect(Collectors.toList()));
+        } else {
+            for (Geometry geometry : candidates) {
+                if (geometry.matches(window, relation)) {
+                    result.add(geometry);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 返回与point的最小距离不超过distance的所有条目
+     * @param point 查询点
+     * @param distance 距离上限
+     * @return List<MaximumBoundingBox>
+     */
+    public List<MaximumBoundingBox> withinDistance(Point point, double distance) {
+        if (point == null) {
+            throw new IllegalArgumentException("point can't be null");
+        }
+        return withinDistance(MaximumBoundingBox.create(point), distance);
+    }
+
+    /**
+     * 返回与mbb的最小距离不超过distance的所有条目。遍历时按节点外包矩形与mbb的最小距离（MINDIST）剪枝，
+     * 而不是先用扩大后的窗口查询再过滤。
+     * @param mbb 查询的MBB
+     * @param distance 距离上限
+     * @return List<MaximumBoundingBox>
+     */
+    public List<MaximumBoundingBox> withinDistance(MaximumBoundingBox mbb, double distance) {
+        checkWindow(mbb);
+        checkDistance(distance);
+        List<MaximumBoundingBox> result = new ArrayList<>();
+        root.withinDistance(mbb, distance * distance, result);
+        return result;
+    }
+
+    /**
+     * 距离自连接：返回所有距离不超过distance的条目对，每对只出现一次，不包括条目与自身的配对。
+     * 以树与自身做双重遍历，只有外包矩形之间的最小距离不超过distance的节点对才继续向下。
+     * 先从根节点展开出足够多的节点对，再在ForkJoin公共线程池中并行处理，遍历期间不能修改树。
+     * @param distance 距离上限
+     * @return List<MaximumBoundingBox[]> 每个元素是长度为2的条目对
+     */
+    public List<MaximumBoundingBox[]> distanceSelfJoin(double distance) {
+        checkDistance(distance);
+        double distanceSquare = distance * distance;
+
+        List<RTNode[]> tasks = new ArrayList<>();
+        tasks.add(new RTNode[]{root, root});
+        int target = 4 * ForkJoinPool.getCommonPoolParallelism();
+        while (!tasks.isEmpty() && tasks.size() < target && !tasks.get(0)[0].isLeaf()) {
+            List<RTNode[]> expanded = new ArrayList<>();
+            for (RTNode[] task : tasks) {
+                expandJoin(task[0], task[1], distanceSquare, expanded);
+            }
+            tasks = expanded;
+        }
+
+        return tasks.parallelStream()
+                .flatMap(task -> {
+                    List<MaximumBoundingBox[]> pairs = new ArrayList<>();
+                    task[0].distanceJoin(task[1], distanceSquare, pairs);
+                    return pairs.stream();
+                })
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 把一对同层的中间节点展开为距离不超过上限的子节点对，规则与RTNode.distanceJoin相同
+     */
+    private void expandJoin(RTNode one, RTNode two, double distanceSquare, List<RTNode[]> tasks) {
+        boolean self = one == two;
+        for (int index = 0; index < one.usedCount; index++) {
+            for (int otherIndex = self ? index : 0; otherIndex < two.usedCount; otherIndex++) {
+                if (one.data[index].minDistanceSquare(two.data[otherIndex]) <= distanceSquare) {
+                    tasks.add(new RTNode[]{((RTIndexNode) one).getChild(index), ((RTIndexNode) two).getChild(otherIndex)});
+                }
+            }
+        }
+    }
+
+    private void checkDistance(double distance) {
+        if (distance < 0 || Double.isNaN(distance)) {
+            throw new IllegalArgumentException("distance must not be negative");
+        }
+    }
+
+    /**
+     * k近邻查询的候选项，node与box有且只有一个不为null
+     */
+    private static class NearestCandidate implements Comparable<NearestCandidate> {
+        private final double distance;
+        private final RTNode node;
+        private final MaximumBoundingBox box;
+
+        NearestCandidate(double distance, RTNode node, MaximumBoundingBox box) {
+            this.distance = distance;
+            this.node = node;
+            this.box = box;
+        }
+
+        @Override
+        public int compareTo(NearestCandidate other) {
+            return Double.compare(this.distance, other.distance);
+        }
+    }
+
+    /**
+     * 批量k近邻查询中待展开的节点，box为节点在父节点中的MBB（根节点为null），
+     * members为还可能从该节点得到更近条目的组内成员，distance为其中最近成员的距离
+     */
+    private static class GroupCandidate implements Comparable<GroupCandidate> {
+        private final double distance;
+        private final RTNode node;
+        private final MaximumBoundingBox box;
+        private final long members;
+
+        GroupCandidate(double distance, RTNode node, MaximumBoundingBox box, long members) {
+            this.distance = distance;
+            this.node = node;
+            this.box = box;
+            this.members = members;
+        }
+
+        @Override
+        public int compareTo(GroupCandidate other) {
+            return Double.compare(this.distance, other.distance);
+        }
+    }
+
+    private void checkWindow(MaximumBoundingBox window) {
+        if (window == null) {
+            throw new IllegalArgumentException("window can't be null");
+        }
+
+        if (window.dimension() != this.getDimension()) {
+            throw new IllegalArgumentException("dimension not equal");
+        }
+    }
+
+    /**
+     * 把当前树的所有条目打包成一棵只读的静态R树，节点容量与当前树相同。当前树不受影响。
+     * @return FrozenRTree
+     */
+    public FrozenRTree freeze() {
+        return freeze(false);
+    }
+
+    /**
+     * 把当前树的所有条目打包成一棵只读的静态R树
+     * @param offHeap 为true时静态树的边界与负载存放在堆外，不再占用Java堆，也不参与GC标记
+     * @return FrozenRTree
+     */
+    public FrozenRTree freeze(boolean offHeap) {
+        return freeze(offHeap, 0);
+    }
+
+    /**
+     * 把当前树的所有条目打包成一棵只读的静态R树，并把中间各层的节点边界量化为相对父节点的8位或16位偏移
+     * @param offHeap 为true时静态树的边界与负载存放在堆外
+     * @param quantizeBits 量化位数：0（不量化）、8 或 16
+     * @return FrozenRTree
+     */
+    public FrozenRTree freeze(boolean offHeap, int quantizeBits) {
+        List<MaximumBoundingBox> boxes = new ArrayList<>();
+        List<Double> values = new ArrayList<>();
+        collectEntries(this.root, boxes, values, null, null);
+
+        double[] valueArray = new double[values.size()];
+        for (int index = 0; index < valueArray.length; index++) {
+            valueArray[index] = values.get(index);
+        }
+        return FrozenRTree.create(boxes.toArray(new MaximumBoundingBox[0]), valueArray,
+                this.nodeCapacity, this.dimension, offHeap, quantizeBits);
+    }
+
+    /**
+     * 分析当前树的结构质量
+     * @param queryExtent 估算访问节点数时查询窗口每一维的边长
+     * @return TreeQuality
+     */
+    public TreeQuality analyze(double queryExtent) {
+        return TreeQuality.analyze(this, queryExtent);
+    }
+
+    /**
+     * 从与window相交的条目中均匀随机地抽取n个不同的条目，见sample(window, n, random)
+     * @param window 查询窗口
+     * @param n 样本数
+     * @return List<MaximumBoundingBox>
+     */
+    public List<MaximumBoundingBox> sample(MaximumBoundingBox window, int n) {
+        return sample(window, n, ThreadLocalRandom.current());
+    }
+
+    /**
+     * 从与window相交的条目中均匀随机地抽取n个不同的条目，匹配的条目不足n个时返回全部匹配的条目。<br>
+     * 开启聚合时不枚举所有匹配：只沿与窗口部分相交的节点向下，被窗口完全包含的子树整体作为一段，条目数取自子树摘要，
+     * 窗口边界上的叶子直接取出匹配的条目。在全部匹配条目的编号上抽取n个不同的编号，
+     * 落在完全包含的子树中的编号按子节点的条目数逐层定位到条目，代价为 边界节点数 + n × 树高。
+     * 未开启聚合时没有子树条目数，先做范围查询再从结果中抽取。
+     * @param window 查询窗口
+     * @param n 样本数
+     * @param random 随机数
+     * @return List<MaximumBoundingBox>
+     */
+    public List<MaximumBoundingBox> sample(MaximumBoundingBox window, int n, Random random) {
+        checkWindow(window);
+        if (n < 0 || random == null) {
+            throw new IllegalArgumentException("n must not be negative and random can't be null");
+        }
+
+        List<RTNode> enclosed = new ArrayList<>();
+        List<MaximumBoundingBox> boundary = new ArrayList<>();
+        if (!aggregated) {
+            root.search(window, boundary);
+        } else if (root.usedCount > 0) {
+            collectSampleRanges(root, window, enclosed, boundary);
+        }
+        long total = boundary.size();
+        for (RTNode node : enclosed) {
+            total += node.aggregate.getCount();
+        }
+        if (total <= n) {
+            List<MaximumBoundingBox> result = new ArrayList<>(boundary);
+            for (RTNode node : enclosed) {
+                node.search(window, result);
+            }
+            return result;
+        }
+
+        // Floyd算法抽取n个不同的编号，编号先落在边界条目上，再依次落在各个完全包含的子树上
+        Set<Long> picked = new HashSet<>();
+        for (long bound = total - n; bound < total; bound++) {
+            long rank = (long) (random.nextDouble() * (bound + 1));
+            picked.add(picked.contains(rank) ? bound : rank);
+        }
+        Long[] ranks = picked.toArray(new Long[0]);
+        Arrays.sort(ranks);
+        List<MaximumBoundingBox> result = new ArrayList<>(n);
+        int node = -1;
+        long offset = boundary.size();
+        for (long rank : ranks) {
+            if (rank < boundary.size()) {
+                result.add(boundary.get((int) rank));
+                continue;
+            }
+            while (node < 0 || rank >= offset + enclosed.get(node).aggregate.getCount()) {
+                if (node >= 0) {
+                    offset += enclosed.get(node).aggregate.getCount();
+                }
+                node++;
+            }
+            result.add(entryAt(enclosed.get(node), rank - offset));
+        }
+        return result;
+    }
+
+    /**
+     * 把被window完全包含的子树加入enclosed，把窗口边界上的叶子中匹配的条目加入boundary
+     */
+    private void collectSampleRanges(RTNode node, MaximumBoundingBox window, List<RTNode> enclosed,
+                                     List<MaximumBoundingBox> boundary) {
+        if (node.isLeaf()) {
+            node.search(window, boundary);
+            return;
+        }
+        RTIndexNode indexNode = (RTIndexNode) node;
+        for (int index = 0; index < indexNode.usedCount; index++) {
+            if (window.enclosure(indexNode.data[index])) {
+                enclosed.add(indexNode.getChild(index));
+            } else if (window.isIntersection(indexNode.data[index])) {
+                collectSampleRanges(indexNode.getChild(index), window, enclosed, boundary);
+            }
+        }
+    }
+
+    /**
+     * 按子节点的条目数逐层定位子树中第rank个条目
+     */
+    private static MaximumBoundingBox entryAt(RTNode node, long rank) {
+        while (!node.isLeaf()) {
+            RTIndexNode indexNode = (RTIndexNode) node;
+            int index = 0;
+            while (rank >= indexNode.getChild(index).aggregate.getCount()) {
+                rank -= indexNode.getChild(index).aggregate.getCount();
+                index++;
+            }
+            node = indexNode.getChild(index);
+        }
+        return node.data[(int) rank];
+    }
+
+    /**
+     * 估算与window相交的条目数，不做完整遍历，用于在索引查询与顺序扫描之间做选择。
+     * 只读取顶部ESTIMATE_LEVELS层节点，其下的子树假设条目在子树MBB内均匀分布，按窗口与子树MBB的重叠比例估算。
+     * 子树的条目数在开启聚合时取自子树摘要，是精确值；否则按节点平均填充 (1 + fillFactor) / 2 估算。
+     * @param window 查询窗口
+     * @return long
+     */
+    public long estimateCount(MaximumBoundingBox window) {
+        return Math.round(estimate(window)[0]);
+    }
+
+    /**
+     * 估算范围查询search(window)访问的节点数。顶部ESTIMATE_LEVELS层按实际相交的节点计数，
+     * 其下的子树假设每层节点在子树MBB内均匀铺开，每一维被窗口覆盖的节点数为 窗口在该维的重叠长度 / 节点边长 + 1。
+     * @param window 查询窗口
+     * @return double
+     */
+    public double estimateCost(MaximumBoundingBox window) {
+        return estimate(window)[1];
+    }
+
+    /**
+     * @return double[] {估算的条目数, 估算的访问节点数}
+     */
+    private double[] estimate(MaximumBoundingBox window) {
+        checkWindow(window);
+
+        double[] estimate = new double[2];
+        if (root.usedCount > 0) {
+            estimate(root, window, estimate);
+        }
+        return estimate;
+    }
+
+    private void estimate(RTNode node, MaximumBoundingBox window, double[] estimate) {
+        estimate[1] += 1;
+        for (int index = 0; index < node.usedCount; index++) {
+            if (!window.isIntersection(node.data[index])) {
+                continue;
+            }
+            if (node.isLeaf()) {
+                estimate[0] += 1;
+                continue;
+            }
+            RTNode child = ((RTIndexNode) node).getChild(index);
+            if (root.level - child.level < ESTIMATE_LEVELS) {
+                estimate(child, window, estimate);
+            } else {
+                estimateSubtree(child, node.data[index], window, estimate);
+            }
+        }
+    }
+
+    /**
+     * 按均匀分布估算window在子树中命中的条目数与访问的节点数
+     */
+    private void estimateSubtree(RTNode node, MaximumBoundingBox box, MaximumBoundingBox window, double[] estimate) {
+        double entries;
+        if (aggregated && node.aggregate != null) {
+            entries = node.aggregate.getCount();
+        } else {
+            entries = node.usedCount;
+            for (int level = 0; level < node.level; level++) {
+                entries *= expectedFanout(level);
+            }
+        }
+
+        // 每一维上窗口与子树MBB的重叠比例
+        double[] overlap = new double[dimension];
+        double fraction = 1.0;
+        for (int index = 0; index < dimension; index++) {
+            double side = box.getHigh(index) - box.getLow(index);
+            double length = Math.min(box.getHigh(index), window.getHigh(index))
+                    - Math.max(box.getLow(index), window.getLow(index));
+            overlap[index] = side > 0 ? Math.max(0, length) / side : 1.0;
+            fraction *= overlap[index];
+        }
+        estimate[0] += entries * fraction;
+
+        // 自上而下每层节点数为 子树条目数 / 该层及以下各层的扇出之积，每一维铺开 节点数^(1/d) 个节点
+        double nodes = entries;
+        double[] levelNodes = new double[node.level + 1];
+        for (int level = 0; level <= node.level; level++) {
+            nodes /= expectedFanout(level);
+            levelNodes[level] = Math.max(1.0, nodes);
+        }
+        levelNodes[node.level] = 1.0;
+        for (int level = node.level; level >= 0; level--) {
+            double perDimension = Math.pow(levelNodes[level], 1.0 / dimension);
+            double accessed = 1.0;
+            for (int index = 0; index < dimension; index++) {
+                accessed *= Math.min(perDimension, perDimension * overlap[index] + 1);
+            }
+            estimate[1] += accessed;
+        }
+    }
+
+    /**
+     * 第level层节点的平均条目数，假设节点的填充在最小条目数与容量之间均匀分布
+     */
+    private double expectedFanout(int level) {
+        return (level == 0 ? leafCapacity : nodeCapacity) * (1 + fillFactor) / 2;
+    }
+
+    /**
+     * 以当前树的所有条目批量构建一棵新树，配置（类型、容量、填充因子、聚合、Hilbert空间）与当前树相同。
+     * 条目按STR顺序（Hilbert R树按Hilbert值）排序后每leafCapacity个打包成一个叶子节点，再每nodeCapacity个逐层向上构建。
+     * 当前树不受影响，常驻查询与查询缓存不会被复制。
+     * @return RTree
+     */
+    public RTree rebuild() {
+        List<MaximumBoundingBox> boxes = new ArrayList<>();
+        List<Double> values = new ArrayList<>();
+        List<Geometry> geometries = new ArrayList<>();
+        List<Long> expiries = new ArrayList<>();
+        collectEntries(this.root, boxes, values, geometries, expiries);
+        return bulkLoad(boxes, values, geometries, expiries);
+    }
+
+    /**
+     * 以当前树的所有条目按template的配置（类型、容量、填充因子、聚合、Hilbert空间）批量构建一棵新树，
+     * 用于把调优得到的配置应用到已有的数据上。当前树与template都不受影响。
+     * @param template 提供配置的树，维度必须与当前树相同
+     * @return RTree
+     */
+    public RTree rebuild(RTree template) {
+        if (template == null || template.dimension != this.dimension) {
+            throw new IllegalArgumentException("template is null or its dimension not equal");
+        }
+        List<MaximumBoundingBox> boxes = new ArrayList<>();
+        List<Double> values = new ArrayList<>();
+        List<Geometry> geometries = new ArrayList<>();
+        List<Long> expiries = new ArrayList<>();
+        collectEntries(this.root, boxes, values, geometries, expiries);
+        return template.bulkLoad(boxes, values, geometries, expiries);
+    }
+
+    /**
+     * 以给定的条目批量构建一棵配置与当前树相同的新树，不读取当前树的节点。
+     * geometries为null时条目都没有几何形状，expiries为null时条目都不过期。
+     */
+    RTree bulkLoad(List<MaximumBoundingBox> boxes, List<Double> values, List<Geometry> geometries,
+                   List<Long> expiries) {
+        RTree rTree = this.rTreeType == Constants.HILBERT
+                ? new RTree(this.nodeCapacity, this.leafCapacity, this.fillFactor, this.hilbertSpace)
+                : new RTree(this.nodeCapacity, this.leafCapacity, this.rTreeType, this.fillFactor, this.dimension);
+        rTree.aggregated = this.aggregated;
+        rTree.expiring = this.expiring;
+        if (expiries != null && !rTree.expiring) {
+            // 按其他树的配置构建时，条目可能来自开启了过期的树
+            for (long expiry : expiries) {
+                if (expiry != NO_EXPIRY) {
+                    rTree.expiring = true;
+                    break;
+                }
+            }
+        }
+        if (this.entryLeaves != null) {
+            // 叶子节点在放入条目时建立索引
+            rTree.entryLeaves = new HashMap<>();
+        }
+        if (boxes.isEmpty()) {
+            return rTree;
+        }
+
+        MaximumBoundingBox[] boxArray = boxes.toArray(new MaximumBoundingBox[0]);
+        int[] order;
+        if (this.rTreeType == Constants.HILBERT) {
+            long[] hilbertValues = new long[boxArray.length];
+            Integer[] sorted = new Integer[boxArray.length];
+            for (int seq = 0; seq < boxArray.length; seq++) {
+                hilbertValues[seq] = rTree.hilbertValue(boxArray[seq]);
+                sorted[seq] = seq;
+            }
+            Arrays.sort(sorted, Comparator.comparingLong(seq -> hilbertValues[seq]));
+            order = new int[sorted.length];
+            for (int seq = 0; seq < sorted.length; seq++) {
+                order[seq] = sorted[seq];
+            }
+        } else {
+            order = FrozenRTree.sortTileRecursive(boxArray, this.leafCapacity, this.dimension);
+        }
+
+        List<RTNode> level = new ArrayList<>();
+        RTLeafNode leaf = null;
+        for (int seq : order) {
+            if (leaf == null || leaf.usedCount == this.leafCapacity) {
+                leaf = new RTLeafNode(rTree, null);
+                level.add(leaf);
+            }
+            leaf.values[leaf.usedCount] = values.get(seq);
+            leaf.setGeometry(leaf.usedCount, geometries == null ? null : geometries.get(seq));
+            leaf.setExpiry(leaf.usedCount, expiries == null ? NO_EXPIRY : expiries.get(seq));
+            if (leaf.hilbertValues != null) {
+                leaf.hilbertValues[leaf.usedCount] = rTree.hilbertValue(boxArray[seq]);
+            }
+            leaf.addMaximumBoundingBox(boxArray[seq]);
+        }
+        for (RTNode node : level) {
+            node.refreshSummary();
+        }
+
+        while (level.size() > 1) {
+            List<RTNode> upper = new ArrayList<>();
+            RTIndexNode indexNode = null;
+            for (RTNode child : level) {
+                if (indexNode == null || indexNode.usedCount == this.nodeCapacity) {
+                    indexNode = new RTIndexNode(rTree, null, child.level + 1);
+                    upper.add(indexNode);
+                }
+                indexNode.addMaximumBoundingBox(child.getMaximumBoundingBox());
+                indexNode.children.add(child);
+                child.parent = indexNode;
+            }
+            for (RTNode node : upper) {
+                node.refreshSummary();
+            }
+            level = upper;
+        }
+        rTree.setRoot(level.get(0));
+        return rTree;
+    }
+
+    /**
+     * 接管other上注册的常驻查询与查询缓存，用于后台重建后替换旧树。两棵树的条目必须相同。
+     */
+    void adoptListeners(RTree other) {
+        this.standingQueryIndex = other.standingQueryIndex;
+        this.standingQueries = other.standingQueries;
+        this.queryCache = other.queryCache;
+    }
+
+    /**
+     * 收集node之下所有叶子条目及其负载、几何形状（没有几何形状的条目为null）与过期时间，
+     * geometries、expiries为null时不收集对应的负载
+     */
+    void collectEntries(RTNode node, List<MaximumBoundingBox> boxes, List<Double> values, List<Geometry> geometries,
+                        List<Long> expiries) {
+        if (node.isLeaf()) {
+            RTLeafNode leaf = (RTLeafNode) node;
+            for (int index = 0; index < leaf.usedCount; index++) {
+                boxes.add(leaf.data[index]);
+                values.add(leaf.values[index]);
+                if (geometries != null) {
+                    geometries.add(leaf.geometries == null ? null : leaf.geometries[index]);
+                }
+                if (expiries != null) {
+                    expiries.add(leaf.expiryOf(index));
+                }
+            }
+        } else {
+            RTIndexNode indexNode = (RTIndexNode) node;
+            for (int index = 0; index < indexNode.usedCount; index++) {
+                collectEntries(indexNode.getChild(index), boxes, values, geometries, expiries);
+            }
+        }
+    }
+
     public List<RTNode> traversePostOrder(RTNode root) {
         if (root == null) {
             throw new IllegalArgumentException("root can't be null");
@@ -0,0 +1,249 @@
+package share.shiguri.code.rtree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * @ClassName RTreeRebuilder
+ * @Description 带后台重建的RTree。所有读写都通过该类进行，读写之间由读写锁保护。<br>
+ * 后台线程定期分析树的质量：以批量构建的树估算的平均访问节点数为基准，当前树的质量为 基准 / 当前平均访问节点数，
+ * 低于threshold时在后台批量重建。重建期间写入照常进行并记录下来，新树构建完成后在写锁内重放这些写入，
+ * 再原子地替换旧树，常驻查询与查询缓存随之转移到新树上。
+ */
+public class RTreeRebuilder {
+    private final AtomicReference<RTree> current;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ScheduledExecutorService scheduler;
+    // 估算访问节点数时查询窗口每一维的边长
+    private final double queryExtent;
+    // 质量低于该值时重建，取值在(0, 1]之间
+    private final double threshold;
+    // 批量构建的树估算的平均访问节点数
+    private volatile double baseline;
+    // 重建期间的写入，重建完成后在新树上重放；不在重建时为null
+    private List<Consumer<RTree>> changes;
+
+    public RTreeRebuilder(RTree rTree, double queryExtent, double threshold) {
+        if (rTree == null) {
+            throw new IllegalArgumentException("rTree can't be null");
+        }
+        if (threshold <= 0 || threshold > 1) {
+            throw new IllegalArgumentException("threshold must in (0, 1]");
+        }
+        this.current = new AtomicReference<>(rTree);
+        this.queryExtent = queryExtent;
+        this.threshold = threshold;
+        this.baseline = rTree.rebuild().analyze(queryExtent).getNodesVisitedPerQuery();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rtree-rebuilder");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 开始每隔periodMillis毫秒检查一次树的质量
+     * @param periodMillis 检查间隔
+     */
+    public void start(long periodMillis) {
+        scheduler.scheduleWithFixedDelay(this::rebuildIfDegraded, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止后台检查
+     */
+    public void close() {
+        scheduler.shutdown();
+    }
+
+    /**
+     * @return RTree 当前的树。直接修改返回的树会绕过读写锁与重建期间的写入记录。
+     */
+    public RTree getTree() {
+        return current.get();
+    }
+
+    public TreeQuality analyze() {
+        lock.readLock().lock();
+        try {
+            return current.get().analyze(queryExtent);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return double 当前树的质量，批量构建的树为1，越小越差
+     */
+    public double getQuality() {
+        double visited = analyze().getNodesVisitedPerQuery();
+        return visited == 0 ? 1.0 : Math.min(1.0, baseline / visited);
+    }
+
+    /**
+     * 质量低于threshold时重建
+     * @return boolean 是否进行了重建
+     */
+    public boolean rebuildIfDegraded() {
+        if (getQuality() >= threshold) {
+            return false;
+        }
+        rebuild();
+        return true;
+    }
+
+    /**
+     * 立即重建。只在收集条目与替换新树时持有写锁，构建新树期间读写都可以继续。
+     */
+    public synchronized void rebuild() {
+        RTree old;
+        List<MaximumBoundingBox> boxes = new ArrayList<>();
+        List<Double> values = new ArrayList<>();
+        List<Geometry> geometries = new ArrayList<>();
+        List<Long> expiries = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            old = current.get();
+            old.collectEntries(old.getRoot(), boxes, values, geometries, expiries);
+            changes = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        RTree rebuilt;
+        try {
+            rebuilt = old.bulkLoad(boxes, values, geometries, expiries);
+        } catch (RuntimeException error) {
+            lock.writeLock().lock();
+            changes = null;
+            lock.writeLock().unlock();
+            throw error;
+        }
+        double rebuiltVisited = rebuilt.analyze(queryExtent).getNodesVisitedPerQuery();
+
+        lock.writeLock().lock();
+        try {
+            for (Consumer<RTree> change : changes) {
+                change.accept(rebuilt);
+            }
+            changes = null;
+            rebuilt.adoptListeners(old);
+            current.set(rebuilt);
+            baseline = rebuiltVisited;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean insert(MaximumBoundingBox mbb) {
+        return insert(mbb, 0d);
+    }
+
+    public boolean insert(MaximumBoundingBox mbb, double value) {
+        lock.writeLock().lock();
+        try {
+            boolean result = current.get().insert(mbb, value);
+            record(rTree -> rTree.insert(mbb, value));
+            return result;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean insert(Geometry geometry, double value) {
+        lock.writeLock().lock();
+        try {
+            boolean result = current.get().insert(geometry, value);
+            record(rTree -> rTree.insert(geometry, value));
+            return result;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int delete(MaximumBoundingBox mbb) {
+        lock.writeLock().lock();
+        try {
+            int result = current.get().delete(mbb);
+            if (result != -1) {
+                record(rTree -> rTree.delete(mbb));
+            }
+            return result;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean update(MaximumBoundingBox oldMbb, MaximumBoundingBox newMbb) {
+        lock.writeLock().lock();
+        try {
+            boolean result = current.get().update(oldMbb, newMbb);
+            if (result) {
+                record(rTree -> rTree.update(oldMbb, newMbb));
+            }
+            return result;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public List<MaximumBoundingBox> search(MaximumBoundingBox window) {
+        lock.readLock().lock();
+        try {
+            return current.get().search(window);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long count(MaximumBoundingBox window) {
+        lock.readLock().lock();
+        try {
+            return current.get().count(window);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Aggregate aggregate(MaximumBoundingBox window) {
+        lock.readLock().lock();
+        try {
+            return current.get().aggregate(window);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<MaximumBoundingBox> nearest(Point point, int k) {
+        lock.readLock().lock();
+        try {
+            return current.get().nearest(point, k);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public StandingQuery registerQuery(MaximumBoundingBox window, RegionListener listener) {
+        lock.writeLock().lock();
+        try {
+            return current.get().registerQuery(window, listener);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 重建期间记录写入，调用时持有写锁
+     */
+    private void record(Consumer<RTree> change) {
+        if (changes != null) {
+            changes.add(change);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package share.shiguri.code.rtree;
+
+/**
+ * @ClassName RegionListener
+ * @Description 常驻范围查询的回调。当insert、delete或update涉及的MBB与注册的窗口相交时被调用。
+ */
+public interface RegionListener {
+    /**
+     * 与窗口相交的MBB被插入
+     * @param window 注册的查询窗口
+     * @param box 插入的MBB
+     */
+    void onInsert(MaximumBoundingBox window, MaximumBoundingBox box);
+
+    /**
+     * 与窗口相交的MBB被删除
+     * @param window 注册的查询窗口
+     * @param box 删除的MBB
+     */
+    void onDelete(MaximumBoundingBox window, MaximumBoundingBox box);
+
+    /**
+     * 更新前或更新后的MBB与窗口相交。默认按移出窗口、移入窗口分别回调onDelete、onInsert。
+     * @param window 注册的查询窗口
+     * @param oldBox 更新前的MBB
+     * @param newBox 更新后的MBB
+     */
+    default void onUpdate(MaximumBoundingBox window, MaximumBoundingBox oldBox, MaximumBoundingBox newBox) {
+        if (window.isIntersection(oldBox)) {
+            onDelete(window, oldBox);
+        }
+        if (window.isIntersection(newBox)) {
+            onInsert(window, newBox);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package share.shiguri.code.rtree;
+
+/**
+ * @ClassName StandingQuery
+ * @Description 在RTree上注册的常驻范围查询，由RTree.registerQuery()返回，调用cancel()注销。
+ */
+public class StandingQuery {
+    private final RTree rTree;
+    private final MaximumBoundingBox window;
+    private final RegionListener listener;
+    private boolean active = true;
+
+    StandingQuery(RTree rTree, MaximumBoundingBox window, RegionListener listener) {
+        this.rTree = rTree;
+        this.window = window;
+        this.listener = listener;
+    }
+
+    public MaximumBoundingBox getWindow() {
+        return window;
+    }
+
+    public RegionListener getListener() {
+        return listener;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * 注销当前查询，之后不会再收到回调
+     */
+    public void cancel() {
+        if (active) {
+            rTree.unregisterQuery(this);
+        }
+    }
+
+    void deactivate() {
+        this.active = false;
+    }
+}
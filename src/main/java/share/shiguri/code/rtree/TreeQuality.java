@@ -0,0 +1,203 @@
+package share.shiguri.code.rtree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @ClassName TreeQuality
+ * @Description RTree的结构质量报告，由RTree.analyze()生成。<br>
+ * 每层统计节点数、平均扇出、填充率，以及中间节点的兄弟条目之间的重叠面积与死空间；
+ * 同时估算一次查询平均访问的节点数：边长为queryExtent的查询窗口在根节点范围内均匀分布时，
+ * 访问某节点的概率为 Π(节点第i维边长 + queryExtent) / (根节点第i维边长 + queryExtent)，对所有节点求和。
+ */
+public class TreeQuality {
+    private final List<Level> levels;
+    private final double queryExtent;
+    private final double nodesVisitedPerQuery;
+
+    private TreeQuality(List<Level> levels, double queryExtent, double nodesVisitedPerQuery) {
+        this.levels = levels;
+        this.queryExtent = queryExtent;
+        this.nodesVisitedPerQuery = nodesVisitedPerQuery;
+    }
+
+    /**
+     * 分析rTree的结构质量
+     * @param rTree 待分析的树
+     * @param queryExtent 估算访问节点数时查询窗口每一维的边长
+     * @return TreeQuality
+     */
+    static TreeQuality analyze(RTree rTree, double queryExtent) {
+        if (queryExtent < 0) {
+            throw new IllegalArgumentException("queryExtent must not be negative");
+        }
+
+        RTNode root = rTree.getRoot();
+        int height = root.level + 1;
+        Level[] levels = new Level[height];
+        for (int level = 0; level < height; level++) {
+            levels[level] = new Level(level, level == 0 ? rTree.getLeafCapacity() : rTree.getNodeCapacity());
+        }
+
+        double visited = 0;
+        if (root.usedCount > 0) {
+            MaximumBoundingBox rootMbb = root.getMaximumBoundingBox();
+            for (RTNode node : rTree.traversePostOrder(root)) {
+                levels[node.level].add(node);
+                visited += accessProbability(node.getMaximumBoundingBox(), rootMbb, queryExtent);
+            }
+        }
+
+        List<Level> result = new ArrayList<>();
+        for (int level = height - 1; level >= 0; level--) {
+            result.add(levels[level]);
+        }
+        return new TreeQuality(Collections.unmodifiableList(result), queryExtent, visited);
+    }
+
+    private static double accessProbability(MaximumBoundingBox node, MaximumBoundingBox root, double queryExtent) {
+        double probability = 1.0;
+        for (int index = 0; index < node.dimension(); index++) {
+            double nodeExtent = node.getRightTopPoint().getValueOfIndex(index) - node.getLeftBottomPoint().getValueOfIndex(index);
+            double rootExtent = root.getRightTopPoint().getValueOfIndex(index) - root.getLeftBottomPoint().getValueOfIndex(index);
+            if (rootExtent + queryExtent > 0) {
+                probability *= Math.min(1.0, (nodeExtent + queryExtent) / (rootExtent + queryExtent));
+            }
+        }
+        return probability;
+    }
+
+    /**
+     * @return List<Level> 各层的统计，第一个是根节点所在的层，最后一个是叶子层
+     */
+    public List<Level> getLevels() {
+        return levels;
+    }
+
+    public double getQueryExtent() {
+        return queryExtent;
+    }
+
+    /**
+     * @return double 一次边长为queryExtent的查询平均访问的节点数
+     */
+    public double getNodesVisitedPerQuery() {
+        return nodesVisitedPerQuery;
+    }
+
+    public double getTotalOverlap() {
+        double overlap = 0;
+        for (Level level : levels) {
+            overlap += level.overlap;
+        }
+        return overlap;
+    }
+
+    public double getTotalDeadSpace() {
+        double deadSpace = 0;
+        for (Level level : levels) {
+            deadSpace += level.deadSpace;
+        }
+        return deadSpace;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append("TreeQuality: {")
+                .append("nodesVisitedPerQuery:").append(nodesVisitedPerQuery)
+                .append(",queryExtent:").append(queryExtent)
+                .append(",levels:").append(levels)
+                .append("}");
+        return stringBuilder.toString();
+    }
+
+    /**
+     * 一层节点的统计。叶子层的level为0。
+     */
+    public static class Level {
+        private final int level;
+        private final int nodeCapacity;
+        private int nodeCount;
+        private long entryCount;
+        private double overlap;
+        private double deadSpace;
+
+        private Level(int level, int nodeCapacity) {
+            this.level = level;
+            this.nodeCapacity = nodeCapacity;
+        }
+
+        /**
+         * 累加一个节点。重叠面积为节点内条目两两相交的面积之和；死空间为节点面积中未被任何条目覆盖的部分，
+         * 按两两相交做容斥近似，结果不小于0。叶子层的条目是数据本身，不计重叠与死空间。
+         */
+        private void add(RTNode node) {
+            this.nodeCount += 1;
+            this.entryCount += node.usedCount;
+            if (node.isLeaf()) {
+                return;
+            }
+
+            double covered = 0;
+            double nodeOverlap = 0;
+            for (int index = 0; index < node.usedCount; index++) {
+                covered += node.data[index].getArea();
+                for (int other = index + 1; other < node.usedCount; other++) {
+                    nodeOverlap += node.data[index].getIntersectionArea(node.data[other]);
+                }
+            }
+            this.overlap += nodeOverlap;
+            this.deadSpace += Math.max(0, node.getMaximumBoundingBox().getArea() - (covered - nodeOverlap));
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        public int getNodeCount() {
+            return nodeCount;
+        }
+
+        public long getEntryCount() {
+            return entryCount;
+        }
+
+        /**
+         * @return double 平均每个节点的条目数
+         */
+        public double getFanout() {
+            return nodeCount == 0 ? 0 : (double) entryCount / nodeCount;
+        }
+
+        /**
+         * @return double 条目数与节点容量之和的比值
+         */
+        public double getFillRatio() {
+            return nodeCount == 0 ? 0 : (double) entryCount / ((long) nodeCount * nodeCapacity);
+        }
+
+        public double getOverlap() {
+            return overlap;
+        }
+
+        public double getDeadSpace() {
+            return deadSpace;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder stringBuilder = new StringBuilder();
+            stringBuilder.append("Level: {")
+                    .append("level:").append(level)
+                    .append(",nodes:").append(nodeCount)
+                    .append(",fanout:").append(getFanout())
+                    .append(",fill:").append(getFillRatio())
+                    .append(",overlap:").append(overlap)
+                    .append(",deadSpace:").append(deadSpace)
+                    .append("}");
+            return stringBuilder.toString();
+        }
+    }
+}
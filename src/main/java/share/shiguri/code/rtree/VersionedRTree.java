@@ -0,0 +1,202 @@
+package share.shiguri.code.rtree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @ClassName VersionedRTree
+ * @Description 多版本R树，每次insert/delete都带有一个单调不减的版本号，可以查询任意保留版本上与窗口相交的条目。<br>
+ * 当前存活的条目保存在live树中，数值负载是条目插入时的版本，live树开启聚合，子树的最小插入版本大于查询版本时整棵子树被剪枝；
+ * 被删除的条目连同生存期[插入版本, 删除版本)以多一维的MBB移入history树，时间维上的区间为[插入版本, 删除版本 - 1]。
+ * 所有版本共享同一份节点，不复制整棵树。<br>
+ * retention大于0时只保留最近retention个版本，版本前进时清理history树中所有版本都不可见的条目。
+ */
+public class VersionedRTree {
+    private final int dimension;
+    // 保留的版本数，0表示保留所有版本
+    private final long retention;
+    private final RTree live;
+    private final RTree history;
+    private long version = 0;
+    // 可以查询的最早版本
+    private long oldestVersion = 0;
+
+    public VersionedRTree(int nodeCapacity, int rTreeType, double fillFactor, int dimension, long retention) {
+        if (retention < 0) {
+            throw new IllegalArgumentException("retention must not be negative");
+        }
+        this.dimension = dimension;
+        this.retention = retention;
+        this.live = new RTree(nodeCapacity, rTreeType, fillFactor, dimension);
+        this.live.setAggregated(true);
+        this.history = new RTree(nodeCapacity, rTreeType, fillFactor, dimension + 1);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getOldestVersion() {
+        return oldestVersion;
+    }
+
+    /**
+     * 在version版本插入一个条目，之后所有不早于version的查询都能看到它
+     * @param mbb MaximumBoundingBox
+     * @param version 版本号，不能小于当前版本
+     * @return boolean
+     */
+    public boolean insert(MaximumBoundingBox mbb, long version) {
+        advance(version);
+        return live.insert(mbb, version);
+    }
+
+    /**
+     * 在version版本删除一个条目，不早于version的查询不再看到它，更早版本的查询仍然可以看到
+     * @param mbb MaximumBoundingBox
+     * @param version 版本号，不能小于当前版本
+     * @return boolean 当前不存在该条目时返回false
+     */
+    public boolean delete(MaximumBoundingBox mbb, long version) {
+        advance(version);
+        RTLeafNode leaf = live.locateLeaf(mbb);
+        if (leaf == null) {
+            return false;
+        }
+        long insertVersion = (long) leaf.values[leaf.deleteIndex];
+        live.delete(mbb);
+        if (version - 1 >= insertVersion && version - 1 >= oldestVersion) {
+            history.insert(withLifespan(mbb, insertVersion, version - 1));
+        }
+        return true;
+    }
+
+    /**
+     * 查询当前版本上与window相交的条目
+     * @param window 查询窗口
+     * @return List<MaximumBoundingBox>
+     */
+    public List<MaximumBoundingBox> search(MaximumBoundingBox window) {
+        return live.search(window);
+    }
+
+    /**
+     * 查询version版本上与window相交的条目
+     * @param window 查询窗口
+     * @param version 版本号，不能早于最早保留的版本
+     * @return List<MaximumBoundingBox>
+     */
+    public List<MaximumBoundingBox> search(MaximumBoundingBox window, long version) {
+        if (window == null || window.dimension() != dimension) {
+            throw new IllegalArgumentException("window is null or its dimension not equal");
+        }
+        if (version < oldestVersion) {
+            throw new IllegalArgumentException("version " + version + " is older than retained version " + oldestVersion);
+        }
+
+        List<MaximumBoundingBox> result = new ArrayList<>();
+        searchLive(live.getRoot(), window, version, result);
+        if (version < this.version) {
+            for (MaximumBoundingBox box : history.search(withLifespan(window, version, version))) {
+                result.add(withoutLifespan(box));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return long 当前存活的条目数目
+     */
+    public long size() {
+        Aggregate aggregate = live.getRoot().aggregate;
+        return aggregate == null ? 0 : aggregate.getCount();
+    }
+
+    /**
+     * 清理history树中在所有保留版本上都不可见的条目，即删除版本不晚于最早保留版本的条目
+     */
+    public void purge() {
+        RTNode root = history.getRoot();
+        if (root.usedCount == 0) {
+            return;
+        }
+        // 时间维上与[-∞, oldestVersion - 1]相交的条目中，生存期结束早于oldestVersion的条目可以移除
+        MaximumBoundingBox space = root.getMaximumBoundingBox();
+        double[] low = new double[dimension + 1];
+        double[] high = new double[dimension + 1];
+        for (int index = 0; index < dimension + 1; index++) {
+            low[index] = space.getLow(index);
+            high[index] = space.getHigh(index);
+        }
+        high[dimension] = oldestVersion - 1;
+        if (high[dimension] < low[dimension]) {
+            return;
+        }
+        for (MaximumBoundingBox box : history.search(MaximumBoundingBox.create(Point.create(low), Point.create(high)))) {
+            if (box.getHigh(dimension) < oldestVersion) {
+                history.delete(box);
+            }
+        }
+    }
+
+    private void advance(long version) {
+        if (version < this.version) {
+            throw new IllegalArgumentException("version must not go backwards, current version is " + this.version);
+        }
+        this.version = version;
+        if (retention > 0 && version - retention + 1 > oldestVersion) {
+            oldestVersion = version - retention + 1;
+            purge();
+        }
+    }
+
+    /**
+     * 遍历live树，跳过最小插入版本晚于version的子树
+     */
+    private void searchLive(RTNode node, MaximumBoundingBox window, long version, List<MaximumBoundingBox> result) {
+        if (node.aggregate != null && node.aggregate.getMin() > version) {
+            return;
+        }
+        if (node.isLeaf()) {
+            RTLeafNode leaf = (RTLeafNode) node;
+            for (int index = 0; index < leaf.usedCount; index++) {
+                if (leaf.values[index] <= version && window.isIntersection(leaf.data[index])) {
+                    result.add(leaf.data[index]);
+                }
+            }
+        } else {
+            RTIndexNode indexNode = (RTIndexNode) node;
+            for (int index = 0; index < indexNode.usedCount; index++) {
+                if (window.isIntersection(indexNode.data[index])) {
+                    searchLive(indexNode.getChild(index), window, version, result);
+                }
+            }
+        }
+    }
+
+    /**
+     * 在mbb的最后加上时间维，时间维上的区间为[from, to]
+     */
+    private static MaximumBoundingBox withLifespan(MaximumBoundingBox mbb, long from, long to) {
+        int dimension = mbb.dimension();
+        double[] low = new double[dimension + 1];
+        double[] high = new double[dimension + 1];
+        for (int index = 0; index < dimension; index++) {
+            low[index] = mbb.getLow(index);
+            high[index] = mbb.getHigh(index);
+        }
+        low[dimension] = from;
+        high[dimension] = to;
+        return MaximumBoundingBox.create(Point.create(low), Point.create(high));
+    }
+
+    private MaximumBoundingBox withoutLifespan(MaximumBoundingBox box) {
+        double[] low = new double[dimension];
+        double[] high = new double[dimension];
+        for (int index = 0; index < dimension; index++) {
+            low[index] = box.getLow(index);
+            high[index] = box.getHigh(index);
+        }
+        return MaximumBoundingBox.create(Point.create(low), Point.create(high));
+    }
+}